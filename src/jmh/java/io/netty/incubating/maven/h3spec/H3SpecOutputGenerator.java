@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic h3spec output which looks like the real one: groups of cases, some of them failing, the
+ * {@code Failures:} section at the end and, if enabled, the frame-level trace of {@code --debug} between the cases.
+ */
+final class H3SpecOutputGenerator {
+
+    /**
+     * Sizes of the generated output, from a typical run to a debug run of a large suite.
+     */
+    enum Size {
+        SMALL(100, 0),
+        LARGE(10000, 0),
+        DEBUG(1000, 50);
+
+        final int cases;
+        final int traceLinesPerCase;
+
+        Size(int cases, int traceLinesPerCase) {
+            this.cases = cases;
+            this.traceLinesPerCase = traceLinesPerCase;
+        }
+    }
+
+    private static final String[] SECTIONS = { "Transport 7.3", "Transport 12.4", "TLS 8.1", "HTTP/3 7.2.4.1",
+            "QPACK 4.2" };
+
+    private H3SpecOutputGenerator() { }
+
+    /**
+     * Generates the output for {@code size}, about every tenth case fails. The same seed gives the same output.
+     */
+    static byte[] generate(Size size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < size.cases; i++) {
+            if (i % 20 == 0) {
+                sb.append("Group ").append(i / 20).append('\n');
+            }
+            for (int j = 0; j < size.traceLinesPerCase; j++) {
+                sb.append("    ").append(random.nextBoolean() ? "Sending " : "Received ")
+                        .append(random.nextBoolean() ? "Initial" : "Handshake").append(" packet: ");
+                for (int k = 0; k < 32; k++) {
+                    sb.append(Character.forDigit(random.nextInt(16), 16));
+                }
+                sb.append('\n');
+            }
+            String name = "MUST send PROTOCOL_VIOLATION if case " + i + " is violated";
+            String section = "[" + SECTIONS[random.nextInt(SECTIONS.length)] + "]";
+            sb.append("  ").append(name).append(' ').append(section);
+            if (random.nextInt(10) == 0) {
+                failures.add(name);
+                sb.append(" FAILED [").append(failures.size()).append(']');
+            }
+            sb.append('\n');
+        }
+        sb.append("\nFailures:\n\n");
+        for (int i = 0; i < failures.size(); i++) {
+            sb.append("  h3spec.hs:42:5:\n  ").append(i + 1).append(") ").append(failures.get(i)).append('\n')
+                    .append("       uncaught exception: TransportErrorIsReceived\n\n");
+        }
+        sb.append(size.cases).append(" examples, ").append(failures.size()).append(" failures\n");
+        return sb.toString().getBytes(Charset.defaultCharset());
+    }
+
+    /**
+     * Returns the case results of a generated run, without the output.
+     */
+    static List<H3SpecCaseResult> results(int cases, long seed) {
+        Random random = new Random(seed);
+        List<H3SpecCaseResult> results = new ArrayList<>(cases);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < cases; i++) {
+            long durationNanos = 1000000L + random.nextInt(100000000);
+            results.add(new H3SpecCaseResult("MUST send PROTOCOL_VIOLATION if case " + i + " is violated",
+                    "[" + SECTIONS[random.nextInt(SECTIONS.length)] + "]", random.nextInt(10) == 0, start,
+                    durationNanos));
+            start += durationNanos / 1000000;
+        }
+        return results;
+    }
+}
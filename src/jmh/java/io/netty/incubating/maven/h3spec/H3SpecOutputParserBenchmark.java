@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.List;
+
+/**
+ * Parses generated h3spec output, written in the chunks the stream pumper of commons-exec uses.
+ */
+public class H3SpecOutputParserBenchmark extends AbstractH3SpecBenchmark {
+    // Buffer size of org.apache.commons.exec.StreamPumper.
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param
+    public H3SpecOutputGenerator.Size size;
+
+    private byte[] output;
+
+    @Setup
+    public void setup() {
+        output = H3SpecOutputGenerator.generate(size, 42);
+    }
+
+    @Benchmark
+    public List<H3SpecCaseResult> parse() {
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        for (int i = 0; i < output.length; i += CHUNK_SIZE) {
+            parser.write(output, i, Math.min(CHUNK_SIZE, output.length - i));
+        }
+        parser.close();
+        return parser.results();
+    }
+}
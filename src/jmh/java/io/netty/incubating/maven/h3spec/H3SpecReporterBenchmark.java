@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Writes a report with all results of a generated run, as {@link H3SpecMojo} does while h3spec runs.
+ */
+public class H3SpecReporterBenchmark extends AbstractH3SpecBenchmark {
+
+    @Param({ "junit", "jsonl", "open-test-reporting" })
+    public String reporter;
+
+    @Param({ "100", "10000" })
+    public int cases;
+
+    private List<H3SpecCaseResult> results;
+    private File directory;
+
+    @Setup
+    public void setup() throws IOException {
+        results = H3SpecOutputGenerator.results(cases, 42);
+        directory = Files.createTempDirectory("h3spec-benchmark").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (H3SpecReporter r = H3SpecReporter.create(reporter, directory, H3SpecMojo.class.getName())) {
+            for (H3SpecCaseResult result: results) {
+                r.onCaseResult(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Scans generated output for the ready, abort and leak messages, as done for the output of the test server.
+ */
+public class StreamMatcherBenchmark extends AbstractH3SpecBenchmark {
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param
+    public H3SpecOutputGenerator.Size size;
+
+    private byte[] output;
+    private StreamMatcher matcher;
+
+    @Setup
+    public void setup() {
+        output = H3SpecOutputGenerator.generate(size, 42);
+        matcher = new StreamMatcher(Arrays.asList("Server started", "Address already in use", "LEAK: "));
+    }
+
+    @Benchmark
+    public void match(Blackhole blackhole) throws IOException {
+        OutputStream out = new StreamMatcher.MatchingOutputStream(new DiscardingOutputStream(blackhole), matcher,
+                blackhole::consume);
+        for (int i = 0; i < output.length; i += CHUNK_SIZE) {
+            out.write(output, i, Math.min(CHUNK_SIZE, output.length - i));
+        }
+        out.flush();
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        DiscardingOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecuteResultHandler;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.Executor;
+import org.apache.commons.exec.PumpStreamHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TestServer} which runs in its own JVM, started through {@link ForkedServerMain}. The output of the JVM is
+ * forwarded to {@code System.out} and {@code System.err} of Maven.
+ */
+final class ForkedServer implements TestServer {
+    private static final long COMMAND_TIMEOUT_MILLIS = 30000;
+
+    private final File javaExecutable;
+    private final List<String> jvmArgs;
+    private final List<String> classpath;
+    private final ServerMonitor monitor;
+    private final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+    private final ExecuteWatchdog watchdog = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
+    private final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler() {
+        @Override
+        public void onProcessComplete(int exitValue) {
+            super.onProcessComplete(exitValue);
+            exited("exited with " + exitValue);
+        }
+
+        @Override
+        public void onProcessFailed(ExecuteException e) {
+            super.onProcessFailed(e);
+            exited("failed: " + e.getMessage());
+        }
+    };
+    private volatile boolean closed;
+    private volatile OutputStream stdin;
+
+    /**
+     * @param javaExecutable the {@code java} executable to use.
+     * @param jvmArgs        the options for the JVM, like {@code -Xmx512m}.
+     * @param classpath      the classpath of the server, the plugin itself is added to it.
+     * @param monitor        watches the output, its abort is triggered if the JVM exits before it was closed.
+     */
+    ForkedServer(File javaExecutable, List<String> jvmArgs, List<String> classpath, ServerMonitor monitor) {
+        this.javaExecutable = javaExecutable;
+        this.jvmArgs = jvmArgs;
+        this.classpath = classpath;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Returns the {@code java} executable of the JVM that runs Maven.
+     */
+    static File currentJavaExecutable() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java");
+    }
+
+    @Override
+    public void start(String mainClass, String[] args) throws IOException {
+        CommandLine cmd = new CommandLine(javaExecutable);
+        for (String jvmArg: jvmArgs) {
+            cmd.addArgument(jvmArg, false);
+        }
+        StringBuilder cp = new StringBuilder();
+        for (String element: classpath) {
+            cp.append(element).append(File.pathSeparatorChar);
+        }
+        cp.append(pluginLocation());
+        cmd.addArgument("-cp").addArgument(cp.toString(), false);
+        cmd.addArgument(ForkedServerMain.class.getName());
+        cmd.addArgument(mainClass, false);
+        for (String arg: args) {
+            cmd.addArgument(arg, false);
+        }
+
+        Executor exec = new DefaultExecutor();
+        exec.setWatchdog(watchdog);
+        exec.setExitValues(null);
+        exec.setStreamHandler(new PumpStreamHandler(
+                new ControlOutputStream(new StreamMatcher.MatchingOutputStream(System.out, monitor.matcher(), monitor)),
+                new StreamMatcher.MatchingOutputStream(System.err, monitor.matcher(), monitor)) {
+            @Override
+            public void setProcessInputStream(OutputStream os) {
+                // Keep stdin of the JVM to send commands to ForkedServerMain.
+                stdin = os;
+            }
+        });
+        exec.execute(cmd, resultHandler);
+    }
+
+    /**
+     * Start a Java Flight Recording in the forked JVM which is written to {@code file} once it is stopped.
+     */
+    void startFlightRecording(String settings, File file) throws IOException {
+        command("jfr-start " + settings + " " + file.getAbsolutePath());
+    }
+
+    void stopFlightRecording(File file) throws IOException {
+        command("jfr-stop " + file.getAbsolutePath());
+    }
+
+    /**
+     * Sample the resource usage of the forked JVM every {@code intervalMillis} into {@code file}, see
+     * {@link ResourceSampler}.
+     */
+    void startSampling(long intervalMillis, File file) throws IOException {
+        command("sample-start " + intervalMillis + " " + file.getAbsolutePath());
+    }
+
+    void stopSampling() throws IOException {
+        command("sample-stop");
+    }
+
+    /**
+     * Send a command to {@link ForkedServerMain} and wait for it to be handled.
+     */
+    synchronized String command(String command) throws IOException {
+        OutputStream stdin = this.stdin;
+        if (stdin == null || closed || resultHandler.hasResult()) {
+            throw new IOException("Forked test server is not running");
+        }
+        responses.clear();
+        stdin.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+        stdin.flush();
+        String response;
+        try {
+            response = responses.poll(COMMAND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for '" + command + "'", e);
+        }
+        if (response == null) {
+            throw new IOException("Forked test server did not answer '" + command + "'");
+        }
+        if (!response.startsWith(ForkedServerMain.OK)) {
+            throw new IOException("Forked test server failed '" + command + "': " + response);
+        }
+        return response.substring(ForkedServerMain.OK.length()).trim();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watchdog.destroyProcess();
+        try {
+            resultHandler.waitFor(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ignore) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void exited(String reason) {
+        if (!closed) {
+            monitor.abort("Forked test server " + reason);
+        }
+    }
+
+    private static String pluginLocation() throws IOException {
+        try {
+            return new File(ForkedServerMain.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                    .getAbsolutePath();
+        } catch (URISyntaxException e) {
+            throw new IOException("Can't locate the plugin jar", e);
+        }
+    }
+
+    /**
+     * Removes the responses of {@link ForkedServerMain} from the output and passes everything else through, line by
+     * line.
+     */
+    private final class ControlOutputStream extends OutputStream {
+        private final byte[] prefix = ForkedServerMain.PREFIX.getBytes(StandardCharsets.UTF_8);
+        private final OutputStream out;
+        private byte[] line = new byte[256];
+        private int lineLength;
+
+        ControlOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (lineLength == line.length) {
+                if (line.length >= H3SpecOutputParser.MAX_LINE_LENGTH) {
+                    // Too long to be a response, pass it through.
+                    flushLine();
+                } else {
+                    line = Arrays.copyOf(line, line.length << 1);
+                }
+            }
+            line[lineLength++] = (byte) b;
+            if (b == '\n') {
+                flushLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushLine();
+            out.flush();
+        }
+
+        private void flushLine() throws IOException {
+            if (isResponse()) {
+                int end = lineLength;
+                while (end > prefix.length && (line[end - 1] == '\n' || line[end - 1] == '\r')) {
+                    end--;
+                }
+                responses.add(new String(line, prefix.length, end - prefix.length, StandardCharsets.UTF_8));
+            } else if (lineLength > 0) {
+                out.write(line, 0, lineLength);
+                out.flush();
+            }
+            lineLength = 0;
+        }
+
+        private boolean isResponse() {
+            if (lineLength < prefix.length || line[lineLength - 1] != '\n') {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (line[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Entry point of the forked test server JVM. It starts the real main class and reads commands from
+ * {@code System.in}, one per line, answering each with a line prefixed with {@link #PREFIX} on {@code System.out}.
+ * <p>
+ * Usage: {@code ForkedServerMain <mainClass> [args...]}
+ */
+public final class ForkedServerMain {
+
+    static final String PREFIX = "[h3spec-fork] ";
+    static final String OK = "ok";
+
+    private static final String RECORDING_NAME = "h3spec";
+
+    // Captured before the server can replace it.
+    private static final PrintStream OUT = System.out;
+
+    private static ResourceSampler sampler;
+
+    private ForkedServerMain() { }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: ForkedServerMain <mainClass> [args...]");
+        }
+        Thread control = new Thread(ForkedServerMain::readCommands, "h3spec-fork-control");
+        control.setDaemon(true);
+        control.start();
+
+        Method main = Class.forName(args[0]).getMethod("main", String[].class);
+        try {
+            main.invoke(null, (Object) Arrays.copyOfRange(args, 1, args.length));
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void readCommands() {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String response;
+                try {
+                    response = handle(line.trim());
+                } catch (Throwable e) {
+                    response = "error " + e;
+                }
+                synchronized (OUT) {
+                    OUT.println(PREFIX + response.replace('\n', ' '));
+                    OUT.flush();
+                }
+            }
+        } catch (IOException ignore) {
+            // stdin was closed, nothing left to do.
+        }
+    }
+
+    private static String handle(String command) throws Exception {
+        int idx = command.indexOf(' ');
+        String name = idx == -1 ? command : command.substring(0, idx);
+        String argument = idx == -1 ? "" : command.substring(idx + 1);
+        switch (name) {
+            case "ping":
+                return OK;
+            case "jfr-start": {
+                // jfr-start <settings> <file>
+                int split = argument.indexOf(' ');
+                diagnosticCommand("jfrStart", "name=" + RECORDING_NAME,
+                        "settings=" + argument.substring(0, split),
+                        "filename=" + quote(argument.substring(split + 1)));
+                return OK;
+            }
+            case "jfr-stop":
+                // jfr-stop <file>
+                diagnosticCommand("jfrStop", "name=" + RECORDING_NAME, "filename=" + quote(argument));
+                return OK;
+            case "sample-start": {
+                // sample-start <intervalMillis> <file>
+                int split = argument.indexOf(' ');
+                sampler = new ResourceSampler(new File(argument.substring(split + 1)),
+                        Long.parseLong(argument.substring(0, split)));
+                sampler.start();
+                return OK;
+            }
+            case "sample-stop":
+                if (sampler != null) {
+                    sampler.stop();
+                    sampler = null;
+                }
+                return OK;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Invoke a diagnostic command (the same as {@code jcmd}) through JMX, which works for every JVM that ships the
+     * {@code DiagnosticCommand} MBean and needs no extra dependency.
+     */
+    private static Object diagnosticCommand(String operation, String... args) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        return server.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"), operation,
+                new Object[] { args }, new String[] { String[].class.getName() });
+    }
+
+    private static String quote(String value) {
+        return value.indexOf(' ') == -1 ? value : '"' + value + '"';
+    }
+}
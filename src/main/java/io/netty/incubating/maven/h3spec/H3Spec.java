@@ -17,74 +17,316 @@ package io.netty.incubating.maven.h3spec;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.Executor;
 import org.apache.commons.exec.PumpStreamHandler;
-import org.codehaus.plexus.util.FileUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 final class H3Spec {
 
-    private static final Pattern PATTERN = Pattern.compile(" {2}(MUST.+) (\\[.+])( FAILED.*)+");
-
     private H3Spec() { }
 
-    static H3SpecResult execute(File targetDirectory, Config config)
+    /**
+     * Run h3spec with up to {@code parallelism} client processes at the same time. The cases that are known from
+     * previous runs are split into shards of about the same total duration and every shard is run by its own
+     * h3spec process. One more process runs everything that is not known yet, so new cases are never missed.
+     * If the {@code config} uses adaptive timeouts the known cases are grouped by their timeout instead, and up to
+     * {@code parallelism} groups run at the same time.
+     * Cases matching {@code excludeSpecs} are left out of the plan. The recorded durations are updated with the
+     * outcome of this run, and cases which did not produce a result in a complete run are removed from them. The
+     * {@code listener} is notified about
+     * each result as soon as it was printed. If {@code traces} is not {@code null} the output of each case is
+     * written to it. The phases of the run, like every h3spec process, are recorded by {@code timer}. If
+     * {@code abort} is triggered all h3spec processes are stopped and the results collected so far are returned.
+     */
+    static H3SpecResult execute(File cacheDirectory, Config config, int parallelism, H3SpecDurations durations,
+                                H3SpecOutputParser.Listener listener, H3SpecTraceWriter traces, PhaseTimer timer,
+                                Abort abort) throws IOException {
+        File h3spec;
+        try (PhaseTimer.Phase ignore = timer.start("extract h3spec")) {
+            h3spec = extractH3Spec(cacheDirectory);
+        }
+        PhaseTimer.Phase planning = timer.start("plan h3spec processes");
+        H3SpecDurations planned = durations.without(config.excludeSpecs);
+        List<Config> configs = new ArrayList<>();
+        List<String> known = new ArrayList<>();
+        int threads;
+        if (config.adaptiveTimeouts() && !planned.isEmpty()) {
+            Map<Long, List<String>> groups = H3SpecTimeouts.plan(planned, config.timeoutMultiplier,
+                    config.minTimeoutMillis, config.timeoutMillis);
+            for (Map.Entry<Long, List<String>> group: groups.entrySet()) {
+                configs.add(config.withSpecs(group.getValue(), Collections.emptyList()).withTimeout(group.getKey()));
+                known.addAll(group.getValue());
+            }
+            threads = Math.max(1, Math.min(parallelism, configs.size() + 1));
+        } else if (parallelism <= 1 || planned.isEmpty()) {
+            planning.close();
+            return prune(durations, config, run(h3spec, config, id -> true, durations, listener, traces, timer, abort),
+                    abort);
+        } else {
+            for (List<String> shard: H3SpecShards.plan(planned.asMap(), parallelism)) {
+                configs.add(config.withSpecs(shard, Collections.emptyList()));
+                known.addAll(shard);
+            }
+            // The shards and the process for the unknown cases together don't exceed parallelism, the last one to
+            // start waits for a free slot.
+            threads = Math.min(parallelism, configs.size() + 1);
+        }
+        configs.add(config.withSpecs(Collections.emptyList(), known));
+        planning.close();
+
+        // --match selects every case whose description contains one of the ids, so a case can run in more than one
+        // process. Only the results of the process that owns a case are used.
+        Map<String, Integer> owners = new HashMap<>();
+        for (int i = 0; i < configs.size() - 1; i++) {
+            for (String id: configs.get(i).matchSpecs) {
+                owners.put(id, i);
+            }
+        }
+        List<Callable<H3SpecResult>> tasks = new ArrayList<>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            int index = i;
+            tasks.add(() -> run(h3spec, configs.get(index), id -> owner(configs, owners, id) == index, durations,
+                    listener, traces, timer, abort));
+        }
+        List<H3SpecCaseResult> results = new ArrayList<>();
+        StringBuilder failureDetails = new StringBuilder();
+        for (H3SpecResult result: runAll(tasks, threads, "h3spec-shard")) {
+            results.addAll(result.results());
+            if (result.failureDetails() != null) {
+                failureDetails.append(result.failureDetails());
+            }
+        }
+        return prune(durations, config, new H3SpecResult(results, failureDetails.toString()), abort);
+    }
+
+    /**
+     * Returns the index of the process whose results are used for the case: the one which runs the known case, or
+     * for an unknown case the first process that also selects it through {@code --match}. The last process, which
+     * skips all known cases, owns all others.
+     */
+    private static int owner(List<Config> configs, Map<String, Integer> owners, String id) {
+        Integer owner = owners.get(id);
+        if (owner != null) {
+            return owner;
+        }
+        for (int i = 0; i < configs.size() - 1; i++) {
+            for (String match: configs.get(i).matchSpecs) {
+                if (id.contains(match)) {
+                    return i;
+                }
+            }
+        }
+        return configs.size() - 1;
+    }
+
+    // Forget the cases that don't exist anymore or were excluded, only a complete run knows all cases.
+    private static H3SpecResult prune(H3SpecDurations durations, Config config, H3SpecResult result, Abort abort) {
+        if (!abort.isAborted() && config.matchSpecs.isEmpty() && !result.results().isEmpty()) {
+            Set<String> ids = new HashSet<>();
+            for (H3SpecCaseResult r: result.results()) {
+                ids.add(r.id());
+            }
+            durations.retain(ids);
+        }
+        return result;
+    }
+
+    /**
+     * Run {@code clients} h3spec processes with the whole suite against the same server at the same time, the n-th
+     * process is started {@code n * staggerMillis} after the first. Durations are not recorded, as they don't
+     * reflect a single client. Returns the result of every process in the order they were started.
+     */
+    static List<H3SpecResult> executeConcurrently(File cacheDirectory, Config config, int clients, long staggerMillis,
+                                                  Abort abort) throws IOException {
+        File h3spec = extractH3Spec(cacheDirectory);
+        List<Callable<H3SpecResult>> tasks = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            long delay = i * staggerMillis;
+            tasks.add(() -> {
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                return run(h3spec, config, id -> true, null, H3SpecOutputParser.Listener.NOOP, null, PhaseTimer.NOOP,
+                        abort);
+            });
+        }
+        return runAll(tasks, clients, "h3spec-load");
+    }
+
+    /**
+     * Runs the tasks on up to {@code threads} daemon threads at the same time and returns their results in the
+     * order of the tasks.
+     */
+    private static List<H3SpecResult> runAll(List<Callable<H3SpecResult>> tasks, int threads, String threadName)
             throws IOException {
-        File h3spec = extractH3Spec(targetDirectory);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<H3SpecResult>> futures = new ArrayList<>(tasks.size());
+            for (Callable<H3SpecResult> task: tasks) {
+                futures.add(executor.submit(task));
+            }
+            List<H3SpecResult> results = new ArrayList<>(tasks.size());
+            for (Future<H3SpecResult> future: futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for h3spec processes", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("h3spec process failed", cause);
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ignore) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Retry every failed case in isolation, each one by its own h3spec process, until it passes or was retried
+     * {@code maxRetries} times. Durations are not recorded, as the cases don't run as part of the suite. Returns the
+     * passing result, marked as flaky, of every case that passed on a retry, keyed by its
+     * {@link H3SpecCaseResult#id()}.
+     */
+    static Map<String, H3SpecCaseResult> retry(File cacheDirectory, Config config, List<H3SpecCaseResult> failures,
+                                               int maxRetries, Abort abort) throws IOException {
+        File h3spec = extractH3Spec(cacheDirectory);
+        Map<String, H3SpecCaseResult> flaky = new LinkedHashMap<>();
+        for (H3SpecCaseResult failure: failures) {
+            String id = failure.id();
+            Config caseConfig = config.withSpecs(Collections.singletonList(id), Collections.emptyList());
+            for (int retries = 1; retries <= maxRetries && !abort.isAborted(); retries++) {
+                H3SpecCaseResult passed = null;
+                // --match also selects cases whose description only contains the id.
+                for (H3SpecCaseResult r: run(h3spec, caseConfig, id::equals, null, H3SpecOutputParser.Listener.NOOP,
+                        null, PhaseTimer.NOOP, abort).results()) {
+                    if (!r.isFailure()) {
+                        passed = r;
+                    }
+                }
+                if (passed != null) {
+                    flaky.put(id, passed.asFlaky(retries));
+                    break;
+                }
+            }
+        }
+        return flaky;
+    }
+
+    /**
+     * Runs one h3spec process. Only the results of the cases {@code accept} returns {@code true} for are recorded,
+     * passed to the {@code listener} and returned.
+     */
+    private static H3SpecResult run(File h3spec, Config config, Predicate<String> accept, H3SpecDurations durations,
+                                    H3SpecOutputParser.Listener listener, H3SpecTraceWriter traces, PhaseTimer timer,
+                                    Abort abort) throws IOException {
         Executor exec = new DefaultExecutor();
+        ExecuteWatchdog watchdog = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
+        exec.setWatchdog(watchdog);
+        if (!abort.register(watchdog)) {
+            return new H3SpecResult(Collections.emptyList(), null);
+        }
 
-        // Streams used to redirect output too.
-        ByteArrayOutputStream err = new ByteArrayOutputStream();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Streams used to redirect output too, results are parsed while the output is written.
+        H3SpecOutputParser.Listener accepted = r -> {
+            if (accept.test(r.id())) {
+                listener.onCaseResult(r);
+            }
+        };
+        // One trace for both streams, so debug output printed to the other stream than the results still belongs to
+        // a case.
+        H3SpecTraceWriter.Trace trace = traces == null ? null : traces.newTrace();
+        H3SpecOutputParser err = new H3SpecOutputParser(accepted, trace);
+        H3SpecOutputParser out = new H3SpecOutputParser(accepted, trace);
 
         PumpStreamHandler psh = new PumpStreamHandler(out, err, System.in);
         exec.setStreamHandler(psh);
         exec.setExitValues(new int[] { 0, 1 });
 
         psh.start();
-        int ret = exec.execute(buildCommandLine(h3spec, config));
-        if (ret == 0 || ret == 1) {
-            StringBuilder sb = new StringBuilder();
-            List<H3SpecCaseResult> results = new ArrayList<>();
+        int ret;
+        try (PhaseTimer.Phase ignore = timer.start("h3spec process")) {
+            ret = exec.execute(buildCommandLine(h3spec, config));
+        } catch (ExecuteException e) {
+            if (!abort.isAborted()) {
+                throw e;
+            }
+            ret = e.getExitValue();
+        } finally {
+            abort.unregister(watchdog);
+            timer.add("parse h3spec output", err.parseNanos() + out.parseNanos());
+        }
+        if (ret == 0 || ret == 1 || abort.isAborted()) {
+            err.close();
+            out.close();
+            if (trace != null) {
+                trace.discard();
+            }
+
             // We check STDIN and STDERR as maven surefire may redirect one to the other.
-            parseH3SpecResult(err, results, sb);
-            parseH3SpecResult(out, results, sb);
+            List<H3SpecCaseResult> results = new ArrayList<>(err.results().size() + out.results().size());
+            for (H3SpecCaseResult r: err.results()) {
+                if (accept.test(r.id())) {
+                    results.add(r);
+                }
+            }
+            for (H3SpecCaseResult r: out.results()) {
+                if (accept.test(r.id())) {
+                    results.add(r);
+                }
+            }
+            StringBuilder sb = err.failureDetails().append(out.failureDetails());
 
+            if (durations != null) {
+                for (H3SpecCaseResult result: results) {
+                    durations.record(result.id(), result.durationMillis());
+                }
+            }
             return new H3SpecResult(results, sb.toString());
         }
         psh.stop();
+        err.close();
+        out.close();
+        if (trace != null) {
+            trace.discard();
+        }
 
         return new H3SpecResult(Collections.emptyList(), null);
     }
 
-    private static void parseH3SpecResult(ByteArrayOutputStream out, List<H3SpecCaseResult> results,
-                                          StringBuilder failureDetails) {
-        String[] outLines = out.toString().split("\n");
-        boolean failure = false;
-        for (String outLine: outLines) {
-            if (failure) {
-                failureDetails.append(outLine).append("\n");
-            } else {
-                Matcher matcher = PATTERN.matcher(outLine);
-                if (matcher.matches()) {
-                    results.add(new H3SpecCaseResult(matcher.group(1), matcher.group(2), matcher.group(3) != null));
-                } else if (outLine.startsWith("Failures:")) {
-                    failure = true;
-                    failureDetails.append(outLine).append("\n");
-                }
-            }
-        }
-    }
-
     private static CommandLine buildCommandLine(File h3spec, Config config) {
         CommandLine cmd = new CommandLine(h3spec);
         cmd.addArgument(config.host).addArgument(String.valueOf(config.port));
@@ -93,6 +335,13 @@ final class H3Spec {
         for (String exclude: config.excludeSpecs) {
             cmd.addArguments("--skip='" + exclude + "'");
         }
+        // Case descriptions are passed as they are, they may contain quotes.
+        for (String match: config.matchSpecs) {
+            cmd.addArgument("--match=" + match, false);
+        }
+        for (String skip: config.skipSpecs) {
+            cmd.addArgument("--skip=" + skip, false);
+        }
         if (config.debug) {
             cmd.addArguments("--debug");
         }
@@ -102,16 +351,19 @@ final class H3Spec {
         return cmd;
     }
 
-    private static File extractH3Spec(final File targetDirectory) throws IOException {
+    /**
+     * Returns the SHA-256 hash of the h3spec binary for this OS.
+     */
+    static String binaryHash() throws IOException {
         URL h3SpecInJar = H3Spec.class.getResource(getH3SpecPath());
         assert h3SpecInJar != null;
-        File h3Spec = new File(targetDirectory, new File(h3SpecInJar.getPath()).getName());
-        FileUtils.copyURLToFile(h3SpecInJar, h3Spec);
+        return H3SpecBinaryCache.resourceHash(h3SpecInJar);
+    }
 
-        if (!h3Spec.setExecutable(true)) {
-            throw new RuntimeException("Can't set h3spec as executable");
-        }
-        return h3Spec;
+    private static File extractH3Spec(final File cacheDirectory) throws IOException {
+        URL h3SpecInJar = H3Spec.class.getResource(getH3SpecPath());
+        assert h3SpecInJar != null;
+        return H3SpecBinaryCache.get(h3SpecInJar, cacheDirectory);
     }
 
     private static String getH3SpecPath() {
@@ -129,19 +381,126 @@ final class H3Spec {
         return fileNameBuilder.toString();
     }
 
+    /**
+     * Allows to stop all h3spec processes of a run early, for example because the server is known to be broken.
+     */
+    static final class Abort {
+        private final Set<ExecuteWatchdog> watchdogs = ConcurrentHashMap.newKeySet();
+        private volatile String reason;
+
+        /**
+         * Stop all running h3spec processes and don't start new ones. This does not block, so it is safe to call
+         * while holding locks (for example from within a write to {@link System#out}).
+         */
+        void abort(String reason) {
+            synchronized (this) {
+                if (this.reason != null) {
+                    return;
+                }
+                this.reason = reason;
+            }
+            Thread thread = new Thread(() -> {
+                for (ExecuteWatchdog watchdog: watchdogs) {
+                    watchdog.destroyProcess();
+                }
+            }, "h3spec-abort");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean isAborted() {
+            return reason != null;
+        }
+
+        /**
+         * The reason passed to {@link #abort(String)} or {@code null} if not aborted.
+         */
+        String reason() {
+            return reason;
+        }
+
+        private synchronized boolean register(ExecuteWatchdog watchdog) {
+            if (reason != null) {
+                return false;
+            }
+            watchdogs.add(watchdog);
+            return true;
+        }
+
+        private void unregister(ExecuteWatchdog watchdog) {
+            watchdogs.remove(watchdog);
+        }
+    }
+
     static final class Config {
         private final String host;
         private final int port;
         private final Iterable<String> excludeSpecs;
         private final long timeoutMillis;
         private final boolean debug;
+        private final Collection<String> matchSpecs;
+        private final Collection<String> skipSpecs;
+        private final double timeoutMultiplier;
+        private final long minTimeoutMillis;
 
         Config(String host, int port, Iterable<String> excludeSpecs, long timeoutMillis, boolean debug) {
+            this(host, port, excludeSpecs, timeoutMillis, debug, Collections.emptyList(), Collections.emptyList(),
+                    0, 0);
+        }
+
+        private Config(String host, int port, Iterable<String> excludeSpecs, long timeoutMillis, boolean debug,
+                       Collection<String> matchSpecs, Collection<String> skipSpecs, double timeoutMultiplier,
+                       long minTimeoutMillis) {
             this.host = host;
             this.port = port;
             this.excludeSpecs = excludeSpecs;
             this.timeoutMillis = timeoutMillis;
             this.debug = debug;
+            this.matchSpecs = matchSpecs;
+            this.skipSpecs = skipSpecs;
+            this.timeoutMultiplier = timeoutMultiplier;
+            this.minTimeoutMillis = minTimeoutMillis;
+        }
+
+        /**
+         * Returns a copy of this {@link Config} which only runs the cases matching one of {@code matchSpecs} (or all
+         * if empty) and additionally skips the cases matching {@code skipSpecs}.
+         */
+        Config withSpecs(Collection<String> matchSpecs, Collection<String> skipSpecs) {
+            return new Config(host, port, excludeSpecs, timeoutMillis, debug, matchSpecs, skipSpecs,
+                    timeoutMultiplier, minTimeoutMillis);
+        }
+
+        /**
+         * Returns a copy of this {@link Config} which uses another timeout for each case.
+         */
+        Config withTimeout(long timeoutMillis) {
+            return new Config(host, port, excludeSpecs, timeoutMillis, debug, matchSpecs, skipSpecs,
+                    timeoutMultiplier, minTimeoutMillis);
+        }
+
+        /**
+         * Returns a copy of this {@link Config} which derives the timeout of every known case from its recorded
+         * durations, see {@link H3SpecTimeouts}. The configured timeout is used for unknown cases and as the upper
+         * limit.
+         */
+        Config withAdaptiveTimeouts(double timeoutMultiplier, long minTimeoutMillis) {
+            return new Config(host, port, excludeSpecs, timeoutMillis, debug, matchSpecs, skipSpecs,
+                    timeoutMultiplier, minTimeoutMillis);
+        }
+
+        boolean adaptiveTimeouts() {
+            return timeoutMultiplier > 0;
+        }
+
+        /**
+         * Returns the values which change the outcome of a run. The address of the server is not included as the
+         * port is usually chosen randomly.
+         */
+        String fingerprint() {
+            return "excludeSpecs=" + excludeSpecs + ", timeoutMillis=" + timeoutMillis + ", debug=" + debug +
+                    ", matchSpecs=" + matchSpecs + ", skipSpecs=" + skipSpecs + ", timeoutMultiplier=" +
+                    timeoutMultiplier + ", minTimeoutMillis=" + minTimeoutMillis;
         }
     }
 }
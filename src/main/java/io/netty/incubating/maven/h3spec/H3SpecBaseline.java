@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Outcome and duration of every case of a reference run, which later runs are compared against.
+ * <p>
+ * The baseline is stored as properties, one per case: {@code <case>=<passed|failed>,<durationMillis>}.
+ */
+final class H3SpecBaseline {
+    private static final String PASSED = "passed";
+    private static final String FAILED = "failed";
+
+    private final Map<String, Entry> entries;
+
+    private H3SpecBaseline(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    static H3SpecBaseline load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        for (String name: properties.stringPropertyNames()) {
+            String[] values = properties.getProperty(name).split(",");
+            if (values.length == 2) {
+                try {
+                    entries.put(name, new Entry(FAILED.equals(values[0].trim()), Long.parseLong(values[1].trim())));
+                } catch (NumberFormatException ignore) {
+                    // Skip broken entries.
+                }
+            }
+        }
+        return new H3SpecBaseline(entries);
+    }
+
+    static void write(File file, List<H3SpecCaseResult> results) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent.getAbsolutePath());
+        }
+        Properties properties = new Properties();
+        for (H3SpecCaseResult r: results) {
+            properties.setProperty(r.id(), (r.isFailure() ? FAILED : PASSED) + "," + r.durationMillis());
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "h3spec baseline: <passed|failed>,<durationMillis>");
+        }
+    }
+
+    /**
+     * Compare the results against this baseline. A case counts as slower if it takes more than {@code ratio} times
+     * its baseline duration and more than {@code thresholdMillis} longer, so very short cases don't trip over noise.
+     * Cases of the baseline which did not run at all, for example because they were renamed or skipped by mistake,
+     * are reported as missing.
+     */
+    Comparison compare(List<H3SpecCaseResult> results, double ratio, long thresholdMillis) {
+        Comparison comparison = new Comparison();
+        Set<String> executed = new HashSet<>();
+        for (H3SpecCaseResult r: results) {
+            executed.add(r.id());
+            Entry entry = entries.get(r.id());
+            if (entry == null) {
+                comparison.newCases.add(r.id());
+                continue;
+            }
+            if (r.isFailure() && !entry.failure) {
+                comparison.newFailures.add(r.id());
+            } else if (!r.isFailure() && entry.failure) {
+                comparison.newPasses.add(r.id());
+            }
+            long limit = Math.max((long) (entry.durationMillis * ratio), entry.durationMillis + thresholdMillis);
+            if (r.durationMillis() > limit) {
+                comparison.slower.add(String.format(Locale.ROOT, "%s: %dms -> %dms (%.2fx)", r.id(),
+                        entry.durationMillis, r.durationMillis(),
+                        entry.durationMillis == 0 ? Double.POSITIVE_INFINITY :
+                                (double) r.durationMillis() / entry.durationMillis));
+            }
+        }
+        for (String id: entries.keySet()) {
+            if (!executed.contains(id)) {
+                comparison.missing.add(id);
+            }
+        }
+        Collections.sort(comparison.missing);
+        return comparison;
+    }
+
+    private static final class Entry {
+        private final boolean failure;
+        private final long durationMillis;
+
+        Entry(boolean failure, long durationMillis) {
+            this.failure = failure;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    static final class Comparison {
+        private final List<String> newFailures = new ArrayList<>();
+        private final List<String> newPasses = new ArrayList<>();
+        private final List<String> slower = new ArrayList<>();
+        private final List<String> newCases = new ArrayList<>();
+        private final List<String> missing = new ArrayList<>();
+
+        /**
+         * Returns {@code true} if a case failed that passed in the baseline, got slower or did not run anymore.
+         */
+        boolean hasRegressions() {
+            return !newFailures.isEmpty() || !slower.isEmpty() || !missing.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Comparison with baseline: ")
+                    .append(newFailures.size()).append(" new failures, ")
+                    .append(newPasses.size()).append(" new passes, ")
+                    .append(slower.size()).append(" slower, ")
+                    .append(newCases.size()).append(" not in baseline, ")
+                    .append(missing.size()).append(" missing from run\n");
+            append(sb, "New failures", newFailures);
+            append(sb, "New passes", newPasses);
+            append(sb, "Slower", slower);
+            append(sb, "Not in baseline", newCases);
+            append(sb, "Missing from run", missing);
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, String title, List<String> cases) {
+            if (cases.isEmpty()) {
+                return;
+            }
+            sb.append(title).append(":\n");
+            for (String c: cases) {
+                sb.append("\t").append(c).append("\n");
+            }
+        }
+    }
+}
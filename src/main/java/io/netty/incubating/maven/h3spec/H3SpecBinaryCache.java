@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed cache for the h3spec binary which is bundled in the plugin jar. The binary is extracted once
+ * per SHA-256 hash into {@code <cacheDirectory>/<hash>/} and verified before it is reused. Concurrent executions,
+ * in the same JVM (-T) or in other processes, are serialized with a lock file next to the extracted binary.
+ */
+final class H3SpecBinaryCache {
+
+    // Hashes of the bundled binaries, these can't change while the plugin is loaded.
+    private static final Map<String, String> RESOURCE_HASHES = new ConcurrentHashMap<>();
+    // Binaries which were already verified by this JVM, the value is "<length>:<lastModified>" at that time.
+    private static final Map<String, String> VERIFIED = new ConcurrentHashMap<>();
+
+    private H3SpecBinaryCache() { }
+
+    static File get(URL resource, File cacheDirectory) throws IOException {
+        String hash = resourceHash(resource);
+        String name = new File(resource.getPath()).getName();
+        File directory = new File(cacheDirectory, hash);
+        File binary = new File(directory, name);
+
+        if (isVerified(binary)) {
+            return binary;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Can't create h3spec cache directory " + directory.getAbsolutePath());
+        }
+
+        // FileChannel.lock() is held per JVM, so serialize the threads of this JVM first.
+        synchronized (H3SpecBinaryCache.class) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, name + ".lock"), "rw");
+                 FileChannel channel = lockFile.getChannel();
+                 FileLock ignore = channel.lock()) {
+                if (binary.isFile() && hash.equals(hash(binary)) && binary.canExecute()) {
+                    markVerified(binary);
+                    return binary;
+                }
+
+                File tmp = File.createTempFile(name, ".tmp", directory);
+                try {
+                    try (InputStream in = resource.openStream(); OutputStream out = new FileOutputStream(tmp)) {
+                        byte[] buffer = new byte[64 * 1024];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                    if (!hash.equals(hash(tmp))) {
+                        throw new IOException("Checksum mismatch while extracting " + resource);
+                    }
+                    if (!tmp.setExecutable(true)) {
+                        throw new IOException("Can't set h3spec as executable");
+                    }
+                    Files.move(tmp.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+                markVerified(binary);
+                return binary;
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of the bundled binary.
+     */
+    static String resourceHash(URL resource) throws IOException {
+        String key = resource.toExternalForm();
+        String hash = RESOURCE_HASHES.get(key);
+        if (hash == null) {
+            try (InputStream in = resource.openStream()) {
+                hash = hash(in);
+            }
+            RESOURCE_HASHES.put(key, hash);
+        }
+        return hash;
+    }
+
+    static String hash(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return hash(in);
+        }
+    }
+
+    private static String hash(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = hex[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = hex[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static boolean isVerified(File binary) {
+        String state = VERIFIED.get(binary.getAbsolutePath());
+        return state != null && state.equals(state(binary)) && binary.canExecute();
+    }
+
+    private static void markVerified(File binary) {
+        VERIFIED.put(binary.getAbsolutePath(), state(binary));
+    }
+
+    private static String state(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+}
@@ -15,15 +15,41 @@
  */
 package io.netty.incubating.maven.h3spec;
 
+import java.util.concurrent.TimeUnit;
+
 final class H3SpecCaseResult {
     private final String name;
     private final String rfcSection;
     private final boolean failure;
+    private final long startMillis;
+    private final long durationNanos;
+    private final int retries;
+
+    /**
+     * @param startMillis   the wall clock time at which the case started, in milliseconds since the epoch.
+     * @param durationNanos how long the case took.
+     */
+    H3SpecCaseResult(final String name, final String rfcSection, boolean failure, long startMillis,
+                     long durationNanos) {
+        this(name, rfcSection, failure, startMillis, durationNanos, 0);
+    }
 
-    H3SpecCaseResult(final String name, final String rfcSection, boolean failure) {
+    private H3SpecCaseResult(final String name, final String rfcSection, boolean failure, long startMillis,
+                             long durationNanos, int retries) {
         this.name = name;
         this.rfcSection = rfcSection;
         this.failure = failure;
+        this.startMillis = startMillis;
+        this.durationNanos = durationNanos;
+        this.retries = retries;
+    }
+
+    /**
+     * Returns a copy of this passed result which marks the case as flaky: it failed first and passed after
+     * {@code retries} retries.
+     */
+    H3SpecCaseResult asFlaky(int retries) {
+        return new H3SpecCaseResult(name, rfcSection, false, startMillis, durationNanos, retries);
     }
 
     String rfcSection() {
@@ -34,7 +60,45 @@ final class H3SpecCaseResult {
         return name;
     }
 
+    /**
+     * The full description of the case as printed by h3spec, which can be used with {@code --match} and
+     * {@code --skip}.
+     */
+    String id() {
+        return name + " " + rfcSection;
+    }
+
     boolean isFailure() {
         return failure;
     }
+
+    /**
+     * Returns {@code true} if the case failed first and passed when it was retried.
+     */
+    boolean isFlaky() {
+        return retries > 0;
+    }
+
+    /**
+     * The number of retries it took until a flaky case passed, {@code 0} if it is not flaky.
+     */
+    int retries() {
+        return retries;
+    }
+
+    long startMillis() {
+        return startMillis;
+    }
+
+    long endMillis() {
+        return startMillis + durationMillis();
+    }
+
+    long durationNanos() {
+        return durationNanos;
+    }
+
+    long durationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-case durations (in milliseconds) that were recorded by previous runs and are used to balance shards and to
+ * derive per-case timeouts.
+ * <p>
+ * The last {@value #HISTORY} durations of every case are kept, stored as properties:
+ * {@code <case>=<oldest>,...,<latest>}.
+ */
+final class H3SpecDurations {
+    static final int HISTORY = 20;
+
+    private final Map<String, long[]> durations = new ConcurrentHashMap<>();
+
+    static H3SpecDurations load(File file) throws IOException {
+        H3SpecDurations durations = new H3SpecDurations();
+        if (file != null && file.isFile()) {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+            for (String name: properties.stringPropertyNames()) {
+                try {
+                    String[] values = properties.getProperty(name).split(",");
+                    long[] history = new long[Math.min(values.length, HISTORY)];
+                    for (int i = 0; i < history.length; i++) {
+                        history[i] = Long.parseLong(values[values.length - history.length + i].trim());
+                    }
+                    durations.durations.put(name, history);
+                } catch (NumberFormatException ignore) {
+                    // Skip broken entries, they will be recorded again by the next run.
+                }
+            }
+        }
+        return durations;
+    }
+
+    void save(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent.getAbsolutePath());
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, long[]> entry: durations.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (long value: entry.getValue()) {
+                sb.append(sb.length() == 0 ? "" : ",").append(value);
+            }
+            properties.setProperty(entry.getKey(), sb.toString());
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "h3spec per-case durations in milliseconds, oldest first");
+        }
+    }
+
+    /**
+     * Returns a copy without the cases whose id contains one of the patterns, like h3spec's {@code --skip} does.
+     */
+    H3SpecDurations without(Iterable<String> patterns) {
+        H3SpecDurations copy = new H3SpecDurations();
+        for (Map.Entry<String, long[]> entry: durations.entrySet()) {
+            if (!containsAny(entry.getKey(), patterns)) {
+                copy.durations.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Removes all cases which are not in {@code ids}, for example because they don't exist anymore or are excluded,
+     * so they are neither used to balance shards nor run by their own process.
+     */
+    void retain(Collection<String> ids) {
+        durations.keySet().retainAll(ids instanceof Set ? ids : new HashSet<>(ids));
+    }
+
+    private static boolean containsAny(String id, Iterable<String> patterns) {
+        for (String pattern: patterns) {
+            if (id.contains(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return durations.isEmpty();
+    }
+
+    /**
+     * Returns the latest duration of every case.
+     */
+    Map<String, Long> asMap() {
+        Map<String, Long> map = new HashMap<>(durations.size());
+        for (Map.Entry<String, long[]> entry: durations.entrySet()) {
+            long[] history = entry.getValue();
+            map.put(entry.getKey(), history[history.length - 1]);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the given percentile (between 0 and 1) of the recorded durations of a case, or -1 if it is unknown.
+     */
+    long percentile(String caseId, double percentile) {
+        long[] history = durations.get(caseId);
+        if (history == null) {
+            return -1;
+        }
+        long[] sorted = history.clone();
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    void record(String caseId, long durationMillis) {
+        long value = Math.max(0, durationMillis);
+        durations.compute(caseId, (id, history) -> {
+            if (history == null) {
+                return new long[] { value };
+            }
+            long[] updated;
+            if (history.length < HISTORY) {
+                updated = Arrays.copyOf(history, history.length + 1);
+            } else {
+                updated = Arrays.copyOfRange(history, 1, HISTORY + 1);
+            }
+            updated[updated.length - 1] = value;
+            return updated;
+        });
+    }
+}
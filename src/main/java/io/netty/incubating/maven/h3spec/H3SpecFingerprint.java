@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Fingerprint of everything a run depends on: the files on the test classpath, the h3spec binary and the
+ * configuration. The fingerprint of the last run that passed is stored together with its JUnit report, so an
+ * unchanged run can be skipped and its report restored.
+ */
+final class H3SpecFingerprint {
+    private static final String FINGERPRINT_FILE = "fingerprint";
+    private static final String REPORT_FILE = "TEST-h3spec.xml";
+
+    private H3SpecFingerprint() { }
+
+    /**
+     * Computes the fingerprint, the files are hashed in parallel.
+     *
+     * @param classpathElements the jars and directories on the test classpath.
+     * @param values            everything else the run depends on, like the binary hash and the configuration.
+     */
+    static String compute(List<String> classpathElements, List<String> values) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String element: classpathElements) {
+            Path path = new File(element).toPath();
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> stream = Files.walk(path)) {
+                    files.addAll(stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            } else if (Files.isRegularFile(path)) {
+                files.add(path);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors())), r -> {
+                    Thread thread = new Thread(r, "h3spec-fingerprint");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            List<Future<String>> hashes = new ArrayList<>(files.size());
+            for (Path file: files) {
+                hashes.add(executor.submit(() -> H3SpecBinaryCache.hash(file.toFile())));
+            }
+            MessageDigest digest = newDigest();
+            for (int i = 0; i < files.size(); i++) {
+                update(digest, files.get(i).toString());
+                update(digest, hashes.get(i).get());
+            }
+            for (String value: values) {
+                update(digest, value);
+            }
+            return H3SpecBinaryCache.toHex(digest.digest());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing the fingerprint", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compute the fingerprint", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Restores the JUnit report of the last run that passed if it had the same fingerprint.
+     *
+     * @return {@code true} if the report was restored and the run can be skipped.
+     */
+    static boolean restore(File directory, String fingerprint, File junitFile) throws IOException {
+        File fingerprintFile = new File(directory, FINGERPRINT_FILE);
+        File report = new File(directory, REPORT_FILE);
+        if (!fingerprintFile.isFile() || !report.isFile()) {
+            return false;
+        }
+        String stored = new String(Files.readAllBytes(fingerprintFile.toPath()), StandardCharsets.UTF_8).trim();
+        if (!stored.equals(fingerprint)) {
+            return false;
+        }
+        Files.copy(report.toPath(), junitFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * Stores the fingerprint and the JUnit report of a run that passed.
+     */
+    static void store(File directory, String fingerprint, File junitFile) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory.getAbsolutePath());
+        }
+        Files.copy(junitFile.toPath(), new File(directory, REPORT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.write(new File(directory, FINGERPRINT_FILE).toPath(), fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        // Separator, so ("ab", "c") and ("a", "bc") don't end up with the same fingerprint.
+        digest.update((byte) 0);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Results of several h3spec clients that ran the suite against the same server at the same time.
+ */
+final class H3SpecLoad {
+    private final List<H3SpecResult> clients;
+    private final long staggerMillis;
+    private final long wallNanos;
+
+    H3SpecLoad(List<H3SpecResult> clients, long staggerMillis, long wallNanos) {
+        this.clients = clients;
+        this.staggerMillis = staggerMillis;
+        this.wallNanos = wallNanos;
+    }
+
+    /**
+     * Returns the cases which passed in {@code solo}, the run of a single client, but failed in any client under
+     * load.
+     */
+    Set<String> failedOnlyUnderLoad(List<H3SpecCaseResult> solo) {
+        Set<String> passedSolo = new HashSet<>();
+        for (H3SpecCaseResult r: solo) {
+            if (!r.isFailure()) {
+                passedSolo.add(r.id());
+            }
+        }
+        Set<String> cases = new TreeSet<>();
+        for (H3SpecResult client: clients) {
+            for (H3SpecCaseResult r: client.results()) {
+                if (r.isFailure() && passedSolo.contains(r.id())) {
+                    cases.add(r.id());
+                }
+            }
+        }
+        return cases;
+    }
+
+    String summary(List<H3SpecCaseResult> solo) {
+        int cases = 0;
+        for (H3SpecResult client: clients) {
+            cases += client.results().size();
+        }
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+                "Load: %d clients, %d test cases in %.3fs, %.1f test cases/s\n", clients.size(), cases,
+                wallNanos / 1e9, wallNanos == 0 ? 0.0 : cases / (wallNanos / 1e9)));
+        for (int i = 0; i < clients.size(); i++) {
+            int[] counts = counts(clients.get(i));
+            sb.append(String.format(Locale.ROOT, "\tclient %d: %d passed, %d failed\n", i, counts[0], counts[1]));
+        }
+        Set<String> failedOnlyUnderLoad = failedOnlyUnderLoad(solo);
+        if (!failedOnlyUnderLoad.isEmpty()) {
+            sb.append("Failed only under load:\n");
+            for (String id: failedOnlyUnderLoad) {
+                sb.append("\t").append(id).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes one line per client with its start offset, pass and fail counts, the sum of its case durations and
+     * its throughput.
+     */
+    void writeReport(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.print("client,start_offset_ms,passed,failed,duration_ms,cases_per_second\n");
+            for (int i = 0; i < clients.size(); i++) {
+                H3SpecResult client = clients.get(i);
+                int[] counts = counts(client);
+                long nanos = 0;
+                for (H3SpecCaseResult r: client.results()) {
+                    nanos += r.durationNanos();
+                }
+                out.print(String.format(Locale.ROOT, "%d,%d,%d,%d,%.3f,%.1f\n", i, i * staggerMillis, counts[0],
+                        counts[1], nanos / 1e6, nanos == 0 ? 0.0 : client.results().size() / (nanos / 1e9)));
+            }
+        }
+    }
+
+    private static int[] counts(H3SpecResult result) {
+        int[] counts = new int[2];
+        for (H3SpecCaseResult r: result.results()) {
+            counts[r.isFailure() ? 1 : 0]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Side-by-side comparison of the results of several server variants that ran the same suite.
+ */
+final class H3SpecMatrix {
+    private final List<String> variants;
+    private final H3SpecResult[] results;
+    // Results of every case, indexed by variant.
+    private final Map<String, H3SpecCaseResult[]> cases = new TreeMap<>();
+
+    H3SpecMatrix(List<String> variants) {
+        this.variants = variants;
+        results = new H3SpecResult[variants.size()];
+    }
+
+    synchronized void record(int variant, H3SpecResult result) {
+        results[variant] = result;
+        for (H3SpecCaseResult r: result.results()) {
+            cases.computeIfAbsent(r.id(), id -> new H3SpecCaseResult[variants.size()])[variant] = r;
+        }
+    }
+
+    /**
+     * Writes one line per case with the outcome and duration in every variant.
+     */
+    synchronized void writeReport(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.print("case");
+            for (String variant: variants) {
+                String name = variant.replace("\"", "\"\"");
+                out.print(",\"" + name + " status\",\"" + name + " duration_ms\"");
+            }
+            out.print('\n');
+            for (Map.Entry<String, H3SpecCaseResult[]> entry: cases.entrySet()) {
+                out.print('"');
+                out.print(entry.getKey().replace("\"", "\"\""));
+                out.print('"');
+                for (H3SpecCaseResult r: entry.getValue()) {
+                    if (r == null) {
+                        out.print(",missing,");
+                    } else {
+                        out.print(String.format(Locale.ROOT, ",%s,%.3f", r.isFailure() ? "failed" : "passed",
+                                r.durationNanos() / 1e6));
+                    }
+                }
+                out.print('\n');
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if any case failed or is missing in one of the variants.
+     */
+    synchronized boolean hasFailures() {
+        for (H3SpecCaseResult[] byVariant: cases.values()) {
+            for (H3SpecCaseResult r: byVariant) {
+                if (r == null || r.isFailure()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Summary of every variant, the cases whose outcome differs between the variants and the cases that are slower
+     * in some variants: more than {@code ratio} times and {@code thresholdMillis} slower than in the fastest one.
+     */
+    synchronized String summary(double ratio, long thresholdMillis) {
+        StringBuilder sb = new StringBuilder("Matrix results:\n");
+        for (int i = 0; i < variants.size(); i++) {
+            int failed = 0;
+            long nanos = 0;
+            H3SpecResult result = results[i];
+            List<H3SpecCaseResult> list = result == null ? new ArrayList<>() : result.results();
+            for (H3SpecCaseResult r: list) {
+                if (r.isFailure()) {
+                    failed++;
+                }
+                nanos += r.durationNanos();
+            }
+            sb.append(String.format(Locale.ROOT, "\t%s: %d test cases, %d failed, %.3fs\n", variants.get(i),
+                    list.size(), failed, nanos / 1e9));
+        }
+        List<String> differentOutcome = new ArrayList<>();
+        List<String> slower = new ArrayList<>();
+        for (Map.Entry<String, H3SpecCaseResult[]> entry: cases.entrySet()) {
+            StringBuilder outcomes = new StringBuilder();
+            boolean passed = false;
+            boolean failed = false;
+            long fastest = Long.MAX_VALUE;
+            for (int i = 0; i < variants.size(); i++) {
+                H3SpecCaseResult r = entry.getValue()[i];
+                outcomes.append(i == 0 ? "" : ", ").append(variants.get(i)).append('=')
+                        .append(r == null ? "missing" : r.isFailure() ? "failed" : "passed");
+                if (r == null || r.isFailure()) {
+                    failed = true;
+                } else {
+                    passed = true;
+                }
+                if (r != null) {
+                    fastest = Math.min(fastest, r.durationMillis());
+                }
+            }
+            if (passed && failed) {
+                differentOutcome.add(entry.getKey() + ": " + outcomes);
+            }
+            long limit = Math.max((long) (fastest * ratio), fastest + thresholdMillis);
+            StringBuilder slowerIn = new StringBuilder();
+            for (int i = 0; i < variants.size(); i++) {
+                H3SpecCaseResult r = entry.getValue()[i];
+                if (r != null && r.durationMillis() > limit) {
+                    slowerIn.append(slowerIn.length() == 0 ? "" : ", ").append(variants.get(i)).append('=')
+                            .append(r.durationMillis()).append("ms");
+                }
+            }
+            if (slowerIn.length() > 0) {
+                slower.add(entry.getKey() + ": fastest " + fastest + "ms, " + slowerIn);
+            }
+        }
+        append(sb, "Different outcome", differentOutcome);
+        append(sb, "Slower", slower);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String title, List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        sb.append(title).append(":\n");
+        for (String line: lines) {
+            sb.append("\t").append(line).append("\n");
+        }
+    }
+}
@@ -24,38 +24,35 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.BufferedOutputStream;
+
 import java.io.File;
-import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.lang.reflect.Method;
 import java.net.InetAddress;
-import java.net.ServerSocket;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 
 @Mojo(name = "h3spec", defaultPhase = LifecyclePhase.INTEGRATION_TEST,
         requiresDependencyResolution = ResolutionScope.TEST)
 public class H3SpecMojo extends AbstractMojo {
+    private static final Pattern VARIANT_NAME = Pattern.compile("[A-Za-z0-9._-]+");
 
     /**
      * The port on which the Server will listen.
@@ -82,37 +79,364 @@ public class H3SpecMojo extends AbstractMojo {
     private boolean skip;
 
     /**
-     * Delay to allow server to startup before we run this test
+     * Delay to allow server to startup before we run this test, only used if {@code readinessProbe} is disabled.
      */
     @Parameter(property = "delay", defaultValue = "1000", required = true)
     private long delay;
 
+    /**
+     * Actively probe the server with QUIC packets until it answers instead of sleeping for {@code delay}
+     * milliseconds. Disabled by default, so existing builds keep the startup behaviour they were tuned for.
+     */
+    @Parameter(property = "readinessProbe", defaultValue = "false")
+    private boolean readinessProbe;
+
+    /**
+     * Maximum time in milliseconds to wait for the server to answer the readiness probe.
+     */
+    @Parameter(property = "readinessTimeoutMillis", defaultValue = "30000")
+    private long readinessTimeoutMillis;
+
     /**
      * Wait for the test server to print this ready message before running the test
      */
     @Parameter(property = "readyMessage")
     private String readyMessage;
 
+    /**
+     * Messages which abort the run as soon as the test server prints one of them to {@code System.out} or
+     * {@code System.err}, for example fatal errors. Default is none.
+     */
+    @Parameter(property = "abortMessages")
+    private List<String> abortMessages;
+
+    /**
+     * Messages which are counted as resource leaks when the test server prints them. Default is the prefix used by
+     * Netty's leak detector, {@code LEAK: }.
+     */
+    @Parameter(property = "leakMessages")
+    private List<String> leakMessages;
+
+    /**
+     * Fail the build if the test server reported any resource leak.
+     */
+    @Parameter(property = "failOnLeak", defaultValue = "false")
+    private boolean failOnLeak;
+
+    /**
+     * Compare the direct and mapped buffer usage and the open file descriptors (only on Linux) of the Maven JVM before
+     * the in-process server was started and after it was stopped, list the threads started by the server that are
+     * still alive, and report what the server left behind. Threads count as started by the server if their context
+     * class loader or their class comes from the test classpath. Not supported together with {@code fork} and
+     * {@code reuseServer}.
+     */
+    @Parameter(property = "leakAudit", defaultValue = "false")
+    private boolean leakAudit;
+
+    /**
+     * How long to wait in milliseconds for the stopped server to release its threads and buffers before the
+     * resources it left behind are reported.
+     */
+    @Parameter(property = "leakAuditSettleMillis", defaultValue = "5000")
+    private long leakAuditSettleMillis;
+
+    /**
+     * Fail the build if the server left more than this many bytes of direct memory behind. Default is to not fail.
+     */
+    @Parameter(property = "maxLeakedDirectMemory", defaultValue = "-1")
+    private long maxLeakedDirectMemory;
+
+    /**
+     * Fail the build if the server left more than this many threads behind. Default is to not fail.
+     */
+    @Parameter(property = "maxLeakedThreads", defaultValue = "-1")
+    private int maxLeakedThreads;
+
+    /**
+     * Fail the build if the server left more than this many open file descriptors behind. Default is to not fail.
+     */
+    @Parameter(property = "maxLeakedFileDescriptors", defaultValue = "-1")
+    private int maxLeakedFileDescriptors;
+
     /**
      * Timeout in milliseconds for each test.
      */
     @Parameter(property = "timeoutMillis", defaultValue = "1000")
     private long timeoutMillis;
 
+    /**
+     * Derive the timeout of every case from the durations recorded in {@code durationsFile}: {@code timeoutMultiplier}
+     * times the p99 of its recent durations, but at least {@code minTimeoutMillis} and at most {@code timeoutMillis}.
+     * As h3spec has a single timeout per process, the cases are grouped by timeout and every group is run by its own
+     * process. Unknown cases use {@code timeoutMillis}.
+     */
+    @Parameter(property = "adaptiveTimeouts", defaultValue = "false")
+    private boolean adaptiveTimeouts;
+
+    /**
+     * See {@code adaptiveTimeouts}.
+     */
+    @Parameter(property = "timeoutMultiplier", defaultValue = "3")
+    private double timeoutMultiplier;
+
+    /**
+     * See {@code adaptiveTimeouts}.
+     */
+    @Parameter(property = "minTimeoutMillis", defaultValue = "250")
+    private long minTimeoutMillis;
+
+    /**
+     * Stop h3spec as soon as a case failed. The cases executed so far are reported.
+     */
+    @Parameter(property = "failFast", defaultValue = "false")
+    private boolean failFast;
+
+    /**
+     * Retry every failed case in isolation, by its own h3spec process, up to this many times. Cases that pass on a
+     * retry are reported as flaky and don't fail the build. Failed cases are only added to the reports once their
+     * retries are done. Not used in soak mode.
+     */
+    @Parameter(property = "retryFailedCases", defaultValue = "0")
+    private int retryFailedCases;
+
     /**
      * Timeout in milliseconds for each test.
      */
     @Parameter(property = "debug", defaultValue = "false")
     private boolean debug;
 
+    /**
+     * Additional reports to write while h3spec runs, next to the JUnit report {@code h3spec-reports/TEST-h3spec.xml}:
+     * {@code jsonl} ({@code h3spec.jsonl}, one JSON object per case) and {@code open-test-reporting}
+     * ({@code open-test-report.xml}). All reports contain every case as soon as it finished.
+     */
+    @Parameter(property = "reporters")
+    private List<String> reporters;
+
+    /**
+     * Number of slowest test cases to log at the end of the run, 0 disables it.
+     */
+    @Parameter(property = "slowestCases", defaultValue = "10")
+    private int slowestCases;
+
+    /**
+     * Number of times the suite is run against the same server instance. If greater than 1 the per-case p50, p99
+     * and max durations and the number of failures are reported in {@code h3spec-reports/h3spec-soak.csv} and a
+     * case fails if it failed in any iteration.
+     */
+    @Parameter(property = "soakIterations", defaultValue = "1")
+    private int soakIterations;
+
+    /**
+     * Keep running the suite against the same server instance until this many milliseconds have passed, see
+     * {@code soakIterations}. 0 disables it.
+     */
+    @Parameter(property = "soakDurationMillis", defaultValue = "0")
+    private long soakDurationMillis;
+
+    /**
+     * Number of h3spec client processes to run at the same time. The cases are split into shards of about the same
+     * duration, based on the durations recorded by previous runs.
+     */
+    @Parameter(property = "parallelism", defaultValue = "1")
+    private int parallelism;
+
+    /**
+     * If {@code debug} is enabled the trace of every case is written to its own gzip file in
+     * {@code h3spec-reports/h3spec-traces}. By default only the traces of failed cases are kept, set this to keep the
+     * traces of passing cases too.
+     */
+    @Parameter(property = "keepPassingTraces", defaultValue = "false")
+    private boolean keepPassingTraces;
+
+    /**
+     * Number of h3spec clients which run the whole suite against the server at the same time after the regular run,
+     * 0 disables it. The pass and fail counts and the throughput of every client are written to
+     * {@code h3spec-reports/h3spec-load.csv} and cases which passed in the regular run but failed under load are
+     * reported.
+     */
+    @Parameter(property = "loadClients", defaultValue = "0")
+    private int loadClients;
+
+    /**
+     * Delay in milliseconds between the start of two {@code loadClients}, 0 starts all of them at once.
+     */
+    @Parameter(property = "loadStaggerMillis", defaultValue = "0")
+    private long loadStaggerMillis;
+
+    /**
+     * Fail the build if a case fails under load that passed in the regular run.
+     */
+    @Parameter(property = "failOnLoadFailures", defaultValue = "false")
+    private boolean failOnLoadFailures;
+
+    /**
+     * Keep the test server running after the execution and reuse it in later executions of this plugin in the same
+     * Maven session with the same {@code mainClass}, {@code port} and {@code fork} settings, instead of starting a new
+     * one. The server keeps the classpath of the execution that started it. Servers are closed when Maven exits or
+     * after a run was aborted.
+     */
+    @Parameter(property = "reuseServer", defaultValue = "false")
+    private boolean reuseServer;
+
+    /**
+     * Number of times the suite is run after the server was started and before the measured run, so the measured
+     * durations reflect a warmed-up JIT. The results of these passes are discarded.
+     */
+    @Parameter(property = "warmupIterations", defaultValue = "0")
+    private int warmupIterations;
+
+    /**
+     * File in which the per-case durations are stored, these are used to balance the shards if {@code parallelism}
+     * is greater than 1.
+     */
+    @Parameter(property = "durationsFile", defaultValue = "${project.build.directory}/h3spec-durations.properties")
+    private File durationsFile;
+
+    /**
+     * Directory in which the bundled h3spec binary is extracted, keyed by its SHA-256 hash so it is shared between
+     * modules, executions and builds.
+     */
+    @Parameter(property = "h3specCacheDirectory", defaultValue = "${settings.localRepository}/.cache/netty-h3spec")
+    private File h3specCacheDirectory;
+
+    /**
+     * Run the test server in its own JVM instead of the JVM of Maven.
+     */
+    @Parameter(property = "fork", defaultValue = "false")
+    private boolean fork;
+
+    /**
+     * Options for the JVM of the test server if {@code fork} is enabled, for example {@code -XX:+AlwaysPreTouch}.
+     */
+    @Parameter(property = "jvmArgs")
+    private List<String> jvmArgs;
+
+    /**
+     * Initial and maximum heap size of the forked test server, for example {@code 512m}.
+     */
+    @Parameter(property = "heapSize")
+    private String heapSize;
+
+    /**
+     * Garbage collector of the forked test server, for example {@code G1}, {@code Parallel} or {@code Z}.
+     */
+    @Parameter(property = "gc")
+    private String gc;
+
+    /**
+     * Record a Java Flight Recording of the forked test server while h3spec runs, it is written to
+     * {@code h3spec.jfr} in the build directory.
+     */
+    @Parameter(property = "flightRecording", defaultValue = "false")
+    private boolean flightRecording;
+
+    /**
+     * The JFR settings to use for {@code flightRecording}, either {@code default}, {@code profile} or the path of a
+     * settings file.
+     */
+    @Parameter(property = "flightRecordingSettings", defaultValue = "profile")
+    private String flightRecordingSettings;
+
+    /**
+     * Sample the resource usage of the test server (process CPU, heap, GC, direct memory and threads) while h3spec
+     * runs. The samples are written to {@code h3spec-reports/h3spec-resources.csv}, together with the cases that
+     * were running at that time, and summed up per case in {@code h3spec-reports/h3spec-resources-by-case.csv}.
+     * For an in-process server the samples cover the whole Maven JVM.
+     */
+    @Parameter(property = "resourceSampling", defaultValue = "false")
+    private boolean resourceSampling;
+
+    /**
+     * Interval in milliseconds between two resource samples.
+     */
+    @Parameter(property = "resourceSamplingIntervalMillis", defaultValue = "100")
+    private long resourceSamplingIntervalMillis;
+
+    /**
+     * Skip the execution if nothing changed since the last run that passed: the files on the test classpath, the
+     * h3spec binary and the configuration. The JUnit report of that run is restored instead.
+     */
+    @Parameter(property = "skipUnchanged", defaultValue = "false")
+    private boolean skipUnchanged;
+
+    /**
+     * Directory in which the fingerprint and the JUnit report of the last run that passed are stored, see
+     * {@code skipUnchanged}.
+     */
+    @Parameter(property = "fingerprintDirectory", defaultValue = "${project.build.directory}/h3spec-fingerprint")
+    private File fingerprintDirectory;
+
+    /**
+     * File with the outcome and duration of every case of a reference run. If set, each run is compared against it
+     * and new failures, new passes and cases that got slower are reported.
+     */
+    @Parameter(property = "baselineFile")
+    private File baselineFile;
+
+    /**
+     * Write the results of this run to {@code baselineFile} instead of comparing against it.
+     */
+    @Parameter(property = "updateBaseline", defaultValue = "false")
+    private boolean updateBaseline;
+
+    /**
+     * A case counts as slower than the baseline if it takes more than this factor of its baseline duration and more
+     * than {@code regressionThresholdMillis} longer.
+     */
+    @Parameter(property = "regressionRatio", defaultValue = "1.5")
+    private double regressionRatio;
+
+    /**
+     * Minimum increase in milliseconds for a case to count as slower, so very short cases don't trip over noise.
+     */
+    @Parameter(property = "regressionThresholdMillis", defaultValue = "50")
+    private long regressionThresholdMillis;
+
+    /**
+     * Fail the build if a case fails that passed in the baseline, a case of the baseline did not run or a case got
+     * slower.
+     */
+    @Parameter(property = "failOnRegression", defaultValue = "false")
+    private boolean failOnRegression;
+
+    /**
+     * Server variants to run h3spec against at the same time instead of the single server, for example the same
+     * server on different transports. Every variant is started in its own JVM on its own port, with the
+     * {@code jvmArgs} of the plugin followed by its own, and gets {@code h3spec-reports/TEST-h3spec-<name>.xml}.
+     * The outcome and duration of every case in every variant is written to {@code h3spec-reports/h3spec-matrix.csv}.
+     * See {@link Variant}.
+     */
+    @Parameter
+    private List<Variant> variants;
+
+    /**
+     * Time the phases of the execution, like starting the server, running every h3spec process, parsing the output
+     * and writing the reports. A summary is logged and all phases are written to
+     * {@code h3spec-reports/h3spec-phases.json} in the Chrome trace event format.
+     */
+    @Parameter(property = "phaseTimings", defaultValue = "false")
+    private boolean phaseTimings;
+
     @Component
     private MavenProject project;
 
-    private ClassLoader getClassLoader() throws MojoExecutionException {
+    private PhaseTimer timer = PhaseTimer.NOOP;
+
+    private List<String> getClasspathElements() throws MojoExecutionException {
         try {
             List<String> classpathElements = project.getTestClasspathElements();
             classpathElements.add(project.getBuild().getOutputDirectory());
             classpathElements.add(project.getBuild().getTestOutputDirectory());
+            return classpathElements;
+        } catch (Exception e) {
+            throw new MojoExecutionException("Couldn't resolve the test classpath", e);
+        }
+    }
+
+    private ClassLoader getClassLoader() throws MojoExecutionException {
+        try (PhaseTimer.Phase ignore = timer.start("create class loader")) {
+            List<String> classpathElements = getClasspathElements();
             URL[] urls = new URL[classpathElements.size()];
 
             for (int i = 0; i < classpathElements.size(); i++) {
@@ -124,6 +448,21 @@ public class H3SpecMojo extends AbstractMojo {
         }
     }
 
+    private List<String> getForkJvmArgs() {
+        List<String> args = new ArrayList<>();
+        if (heapSize != null && !heapSize.isEmpty()) {
+            args.add("-Xms" + heapSize);
+            args.add("-Xmx" + heapSize);
+        }
+        if (gc != null && !gc.isEmpty()) {
+            args.add("-XX:+Use" + gc + "GC");
+        }
+        if (jvmArgs != null) {
+            args.addAll(jvmArgs);
+        }
+        return args;
+    }
+
     @Override
     public void execute() throws MojoExecutionException {
         if (skip) {
@@ -131,8 +470,9 @@ public class H3SpecMojo extends AbstractMojo {
             return;
         }
 
-        final AtomicReference<Throwable> error = new AtomicReference<>();
-        Thread runner = null;
+        if (phaseTimings) {
+            timer = new PhaseTimer();
+        }
         try {
             String host;
             try {
@@ -141,168 +481,845 @@ public class H3SpecMojo extends AbstractMojo {
                 getLog().debug("Unable to detect localhost address, using 127.0.0.1 as fallback");
                 host = "127.0.0.1";
             }
-            if (port == -1) {
-                // Get some random free port
-                port = findRandomOpenPortOnAllLocalInterfaces();
-            }
-            CountDownLatch latch = new CountDownLatch(1);
-            boolean hasReadyMessage = !readyMessage.isEmpty();
-            CountDownLatch readyMessageLatch = new CountDownLatch(hasReadyMessage ? 1 : 0);
-            runner = new Thread(() -> {
-                PrintStream oldOut = hasReadyMessage ? System.out : null;
-                if (oldOut != null) {
-                    // Filtering stream looking for the ready message
-                    FilterOutputStream filterOut = new FilterOutputStream(oldOut) {
-                        @Override
-                        public void write(byte[] b, int off, int len) throws IOException {
-                            if (new String(b, off, len).contains(readyMessage)) {
-                                readyMessageLatch.countDown();
-                            }
-                            super.write(b, off, len);
-                        }
-                    };
-                    // Buffering stream ensuring that output always goes through the `write(byte[], int, int)` method
-                    BufferedOutputStream bufOut = new BufferedOutputStream(filterOut);
-                    // Finally, Auto-flushing print stream as required for System.out.
-                    PrintStream printStream = new PrintStream(bufOut, true);
-                    System.setOut(printStream);
+            if (excludeSpecs == null) {
+                excludeSpecs = Collections.emptyList();
+            }
+            if (variants != null && !variants.isEmpty()) {
+                executeMatrix(host);
+            } else {
+                executeSingle(host);
+            }
+        } finally {
+            writePhaseTimings();
+        }
+    }
+
+    /**
+     * Runs the suite against one server, which is started here or reused from an earlier execution.
+     */
+    private void executeSingle(String host) throws MojoExecutionException {
+        TestServer server = null;
+        PortAllocator.Reservation reservation = null;
+        try {
+            String serverKey = reuseServer ? serverKey() : null;
+            ServerRegistry.Entry shared = serverKey == null ? null : ServerRegistry.acquire(serverKey);
+            if (shared != null) {
+                // Owned by this execution from now on, so the finally block below closes it if anything fails
+                // before it is handed back to the registry.
+                server = shared.server();
+                port = shared.port();
+            } else if (port == -1) {
+                // Get some random free port, it stays reserved until the server has bound it.
+                reservation = reservePorts(1);
+                port = reservation.ports().get(0);
+            }
+            H3Spec.Config config = newConfig(host, port);
+
+            File outputDirectory = new File(project.getBuild().getDirectory());
+            File reportsDirectory = new File(outputDirectory, "h3spec-reports");
+            File junitFile = new File(reportsDirectory, "TEST-h3spec.xml");
+            String fingerprint = null;
+            if (skipUnchanged) {
+                boolean unchanged;
+                try (PhaseTimer.Phase ignore = timer.start("fingerprint")) {
+                    fingerprint = computeFingerprint(config);
+                    unchanged = restoreUnchanged(fingerprint, junitFile);
                 }
-                try {
-                    Thread.currentThread().setContextClassLoader(getClassLoader());
-                    Class<?> clazz = Thread.currentThread().getContextClassLoader().loadClass(mainClass);
-                    Method main = clazz.getMethod("main", String[].class);
-                    latch.countDown();
-                    main.invoke(null, (Object) new String[] { String.valueOf(port) });
-                } catch (Throwable e) {
-                    error.set(e);
-                    latch.countDown();
-                } finally {
-                    if (oldOut != null) {
-                        System.setOut(oldOut);
+                if (unchanged) {
+                    getLog().info("Inputs did not change since the last passing run, skip execution of h3spec");
+                    if (shared != null) {
+                        ServerRegistry.release(serverKey, shared);
+                        server = null;
                     }
+                    return;
                 }
-            });
-            runner.setDaemon(true);
-            runner.start();
+            }
 
+            H3Spec.Abort abort = new H3Spec.Abort();
+            ServerMonitor monitor;
+            if (shared != null) {
+                monitor = shared.monitor();
+                monitor.attach(abort);
+            } else {
+                monitor = new ServerMonitor(readyMessage, abortMessages, leakMessages, abort);
+            }
+            int leaksBefore = monitor.leaks();
+            ResourceAudit audit = null;
+            if (leakAudit && (fork || serverKey != null)) {
+                getLog().warn("leakAudit is not supported together with fork and reuseServer");
+            }
+            boolean started = false;
             try {
-                latch.await();
-
-                Throwable cause = error.get();
-                if (cause != null) {
-                    throw cause;
+                if (shared != null) {
+                    getLog().info("Reusing the test server on port " + port + " of an earlier execution");
+                } else {
+                    ClassLoader classLoader = fork ? null : getClassLoader();
+                    if (classLoader != null && leakAudit && serverKey == null) {
+                        // The jars stay open as long as the class loader of the server.
+                        audit = new ResourceAudit(classLoader, getClasspathElements());
+                    }
+                    server = newServer(classLoader, monitor);
+                    startServer(server, host, reservation, monitor);
+                    warmup(config, abort);
                 }
-                try {
-                    // wait for a few milliseconds to give the server some time to startup
-                    Thread.sleep(delay);
-                } catch (InterruptedException ignore) {
-                    Thread.currentThread().interrupt();
+                started = true;
+                createReportsDirectory(reportsDirectory);
+
+                H3SpecDurations durations;
+                try (PhaseTimer.Phase ignore = timer.start("load durations")) {
+                    durations = H3SpecDurations.load(durationsFile);
                 }
+                File flightRecordingFile = new File(outputDirectory, "h3spec.jfr");
+                startFlightRecording(server, flightRecordingFile);
+                File samplesFile = new File(reportsDirectory, "h3spec-resources.raw.csv");
+                List<H3SpecCaseResult> sampledResults = Collections.synchronizedList(new ArrayList<>());
+                ResourceSampler sampler = startSampling(server, samplesFile);
 
-                // Wait for the ready message, if any
-                readyMessageLatch.await();
+                H3SpecSoak soakStats = new H3SpecSoak();
+                H3SpecResult result = runSuite(config, durations, reportsDirectory, soakStats, sampledResults, abort);
+                H3SpecLoad load = loadClients > 0 && !abort.isAborted() ?
+                        runLoad(config, reportsDirectory, result, abort) : null;
+                stopSampling(server, sampler, samplesFile, sampledResults, reportsDirectory);
+                stopFlightRecording(server, flightRecordingFile);
+                try (PhaseTimer.Phase ignore = timer.start("save durations")) {
+                    durations.save(durationsFile);
+                } catch (IOException e) {
+                    getLog().warn("Unable to store h3spec durations in " + durationsFile, e);
+                }
+                if (isSoak()) {
+                    result = aggregateSoak(soakStats, reportsDirectory, junitFile);
+                } else {
+                    logSlowestCases(result.results());
+                }
 
-                if (excludeSpecs == null) {
-                    excludeSpecs = Collections.emptyList();
+                if (abort.isAborted()) {
+                    throw new MojoFailureException("h3spec run aborted: " + abort.reason());
+                }
+                checkLeaks(monitor.leaks() - leaksBefore);
+                if (audit != null) {
+                    stopServer(server);
+                    server = null;
+                    auditResources(audit);
+                }
+                verify(config, result, load, fingerprint, junitFile);
+            } catch (Throwable e) {
+                throw new MojoExecutionException("Failure during execution", e);
+            } finally {
+                if (serverKey != null && started && !abort.isAborted()) {
+                    // Keep it running for the next execution.
+                    ServerRegistry.release(serverKey, new ServerRegistry.Entry(server, port, monitor));
+                    server = null;
                 }
+            }
+        } finally {
+            if (server != null) {
+                stopServer(server);
+            }
+            releasePorts(reservation);
+        }
+    }
+
+    private boolean isSoak() {
+        return soakIterations > 1 || soakDurationMillis > 0;
+    }
+
+    private TestServer newServer(ClassLoader classLoader, ServerMonitor monitor) throws MojoExecutionException {
+        if (classLoader == null) {
+            return new ForkedServer(ForkedServer.currentJavaExecutable(), getForkJvmArgs(), getClasspathElements(),
+                    monitor);
+        }
+        return new InProcessServer(classLoader, monitor.matcher(), monitor);
+    }
+
+    private void startServer(TestServer server, String host, PortAllocator.Reservation reservation,
+                             ServerMonitor monitor) throws Throwable {
+        try (PhaseTimer.Phase ignore = timer.start("start server")) {
+            server.start(mainClass, new String[] { String.valueOf(port) });
+        }
+        awaitServer(host, port, monitor);
+        releasePorts(reservation);
+    }
+
+    private void createReportsDirectory(File reportsDirectory) {
+        if (!reportsDirectory.exists()) {
+            getLog().debug("Reports directory " + reportsDirectory.getAbsolutePath() +
+                    " does not exist, try creating it...");
+            if (reportsDirectory.mkdirs()) {
+                getLog().debug("Reports directory " + reportsDirectory.getAbsolutePath() +
+                        " created.");
+            } else {
+                getLog().debug("Failed to create report directory");
+            }
+        }
+    }
 
-                File outputDirectory = new File(project.getBuild().getDirectory());
-                H3Spec.Config config = new H3Spec.Config(host, port, excludeSpecs, timeoutMillis, debug);
-                H3SpecResult result = H3Spec.execute(outputDirectory, config);
-
-                File reportsDirectory = new File(outputDirectory, "h3spec-reports");
-                if (!reportsDirectory.exists()) {
-                    getLog().debug("Reports directory " + reportsDirectory.getAbsolutePath() +
-                            " does not exist, try creating it...");
-                    if (reportsDirectory.mkdirs()) {
-                        getLog().debug("Reports directory " + reportsDirectory.getAbsolutePath() +
-                                " created.");
+    private void startFlightRecording(TestServer server, File flightRecordingFile) throws IOException {
+        if (flightRecording) {
+            if (server instanceof ForkedServer) {
+                ((ForkedServer) server).startFlightRecording(flightRecordingSettings, flightRecordingFile);
+            } else {
+                getLog().warn("flightRecording is only supported together with fork");
+            }
+        }
+    }
+
+    private void stopFlightRecording(TestServer server, File flightRecordingFile) throws IOException {
+        if (flightRecording && server instanceof ForkedServer) {
+            ((ForkedServer) server).stopFlightRecording(flightRecordingFile);
+            getLog().info("Flight recording written to " + flightRecordingFile);
+        }
+    }
+
+    /**
+     * Starts sampling the resources used while the suite runs, returns the sampler if it runs in this JVM.
+     */
+    private ResourceSampler startSampling(TestServer server, File samplesFile) throws IOException {
+        if (!resourceSampling) {
+            return null;
+        }
+        if (server instanceof ForkedServer) {
+            ((ForkedServer) server).startSampling(resourceSamplingIntervalMillis, samplesFile);
+            return null;
+        }
+        ResourceSampler sampler = new ResourceSampler(samplesFile, resourceSamplingIntervalMillis);
+        sampler.start();
+        return sampler;
+    }
+
+    private void stopSampling(TestServer server, ResourceSampler sampler, File samplesFile,
+                              List<H3SpecCaseResult> sampledResults, File reportsDirectory) throws IOException {
+        if (!resourceSampling) {
+            return;
+        }
+        if (sampler != null) {
+            sampler.stop();
+        } else {
+            ((ForkedServer) server).stopSampling();
+        }
+        writeResourceReports(samplesFile, sampledResults, reportsDirectory);
+    }
+
+    /**
+     * Runs the suite once, or repeatedly in soak mode, and retries the failed cases if enabled. Every result is
+     * reported as soon as it is known.
+     */
+    private H3SpecResult runSuite(H3Spec.Config config, H3SpecDurations durations, File reportsDirectory,
+                                  H3SpecSoak soakStats, List<H3SpecCaseResult> sampledResults, H3Spec.Abort abort)
+            throws IOException {
+        boolean soak = isSoak();
+        long soakStart = System.nanoTime();
+        List<H3SpecReporter> reporters = createReporters(reportsDirectory);
+        File tracesDirectory = new File(reportsDirectory, "h3spec-traces");
+        H3SpecTraceWriter traces = debug ? new H3SpecTraceWriter(tracesDirectory, keepPassingTraces) : null;
+        boolean retry = retryFailedCases > 0 && !soak;
+        List<H3SpecCaseResult> retryFailures = Collections.synchronizedList(new ArrayList<>());
+        Map<String, H3SpecCaseResult> flaky = Collections.emptyMap();
+        H3SpecResult result;
+        try (PhaseTimer.Phase ignore = timer.start("run h3spec")) {
+            do {
+                AtomicInteger executed = new AtomicInteger();
+                result = H3Spec.execute(h3specCacheDirectory, config, parallelism, durations, r -> {
+                    if (resourceSampling) {
+                        sampledResults.add(r);
+                    }
+                    if (retry && r.isFailure()) {
+                        // Reported once it is known if the case is flaky.
+                        retryFailures.add(r);
                     } else {
-                        getLog().debug("Failed to create report directory");
+                        report(reporters, r);
                     }
-                }
-
-                File junitFile = new File(reportsDirectory, "TEST-h3spec.xml");
-                if (writeJUnitXmlReport(result.results(), junitFile)) {
-                    StringBuilder sb = new StringBuilder("\nFailed test cases:\n");
+                    failFast(r, abort);
+                    String message = "[" + executed.incrementAndGet() + "] " +
+                            (r.isFailure() ? "FAILED " : "passed ") + r.id();
+                    if (soak) {
+                        getLog().debug(message);
+                    } else {
+                        getLog().info(message);
+                    }
+                }, traces, timer, abort);
+                soakStats.record(result);
+                if (soak) {
+                    int failed = 0;
                     for (H3SpecCaseResult r: result.results()) {
                         if (r.isFailure()) {
-                            sb.append("\t");
-                            sb.append(r.name()).append(" ").append(r.rfcSection());
-                            sb.append("\n\n");
+                            failed++;
                         }
                     }
-                    sb.append(result.failureDetails());
-                    throw new MojoFailureException(sb.toString());
-                } else {
-                    getLog().info("All test cases passed.");
+                    getLog().info("Soak iteration " + soakStats.iterations() + ": " + result.results().size() +
+                            " test cases, " + failed + " failed");
                 }
-            } catch (Throwable e) {
-                throw new MojoExecutionException("Failure during execution", e);
+            } while (!abort.isAborted() && (soakStats.iterations() < soakIterations ||
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - soakStart) < soakDurationMillis));
+            if (!retryFailures.isEmpty() && !abort.isAborted()) {
+                getLog().info("Retrying " + retryFailures.size() + " failed test case(s) in isolation, up to " +
+                        retryFailedCases + " times");
+                try (PhaseTimer.Phase retryPhase = timer.start("retry failed cases")) {
+                    flaky = H3Spec.retry(h3specCacheDirectory, config, retryFailures, retryFailedCases, abort);
+                }
+                result = withFlaky(result, flaky);
             }
         } finally {
-            if (runner != null) {
-                runner.interrupt();
+            for (H3SpecCaseResult r: retryFailures) {
+                report(reporters, flaky.getOrDefault(r.id(), r));
             }
+            closeReporters(reporters);
+            closeTraces(traces, tracesDirectory);
         }
+        if (!flaky.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Flaky test cases, passed on retry:\n");
+            for (H3SpecCaseResult r: flaky.values()) {
+                sb.append("\t").append(r.id()).append(" (").append(r.retries()).append(" retries)\n");
+            }
+            getLog().warn(sb.toString());
+        }
+        return result;
     }
 
-    private Integer findRandomOpenPortOnAllLocalInterfaces() {
-        ServerSocket socket = null;
+    private H3SpecLoad runLoad(H3Spec.Config config, File reportsDirectory, H3SpecResult result, H3Spec.Abort abort)
+            throws IOException {
+        getLog().info("Running " + loadClients + " h3spec clients at the same time");
+        long loadStart = System.nanoTime();
+        List<H3SpecResult> clients;
+        try (PhaseTimer.Phase ignore = timer.start("load test")) {
+            clients = H3Spec.executeConcurrently(h3specCacheDirectory, config, loadClients, loadStaggerMillis, abort);
+        }
+        H3SpecLoad load = new H3SpecLoad(clients, loadStaggerMillis, System.nanoTime() - loadStart);
+        load.writeReport(new File(reportsDirectory, "h3spec-load.csv"));
+        getLog().info(load.summary(result.results()));
+        return load;
+    }
+
+    /**
+     * Returns the results aggregated over all soak iterations, which replace the streamed report.
+     */
+    private H3SpecResult aggregateSoak(H3SpecSoak soakStats, File reportsDirectory, File junitFile)
+            throws IOException {
+        getLog().info(soakStats.summary(slowestCases));
+        soakStats.writeReport(new File(reportsDirectory, "h3spec-soak.csv"));
+        H3SpecResult result = soakStats.aggregate();
+        // The streamed report contains every iteration, replace it with the aggregated results.
+        try (H3SpecReporter junit = new JUnitXmlReporter(junitFile, getClass().getName())) {
+            for (H3SpecCaseResult r: result.results()) {
+                junit.onCaseResult(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fails the execution if cases failed, only failed under load or regressed against the baseline, otherwise
+     * stores the fingerprint of the passing run.
+     */
+    private void verify(H3Spec.Config config, H3SpecResult result, H3SpecLoad load, String fingerprint,
+                        File junitFile) throws IOException, MojoExecutionException, MojoFailureException {
+        if (load != null && failOnLoadFailures && !load.failedOnlyUnderLoad(result.results()).isEmpty()) {
+            throw new MojoFailureException("Test cases failed under load: " +
+                    load.failedOnlyUnderLoad(result.results()));
+        }
+        try (PhaseTimer.Phase ignore = timer.start("compare with baseline")) {
+            compareWithBaseline(result.results());
+        }
+        boolean failures = false;
+        for (H3SpecCaseResult r: result.results()) {
+            failures |= r.isFailure();
+        }
+        if (failures) {
+            StringBuilder sb = new StringBuilder("\nFailed test cases:\n");
+            for (H3SpecCaseResult r: result.results()) {
+                if (r.isFailure()) {
+                    sb.append("\t");
+                    sb.append(r.name()).append(" ").append(r.rfcSection());
+                    sb.append("\n\n");
+                }
+            }
+            sb.append(result.failureDetails());
+            throw new MojoFailureException(sb.toString());
+        } else {
+            getLog().info("All test cases passed.");
+            if (fingerprint != null) {
+                if (adaptiveTimeouts) {
+                    // This run updated the durations, the next one is unchanged if it finds them as they are now.
+                    fingerprint = computeFingerprint(config);
+                }
+                H3SpecFingerprint.store(fingerprintDirectory, fingerprint, junitFile);
+            }
+        }
+    }
+
+    private void stopServer(TestServer server) {
+        try (PhaseTimer.Phase ignore = timer.start("stop server")) {
+            server.close();
+        }
+    }
+
+    private void writePhaseTimings() {
+        if (!timer.isEnabled()) {
+            return;
+        }
+        getLog().info(timer.summary());
+        File file = new File(new File(project.getBuild().getDirectory()), "h3spec-reports/h3spec-phases.json");
         try {
-            socket = new ServerSocket(0);
-            return socket.getLocalPort();
+            timer.writeTrace(file);
+            getLog().info("Phase timings written to " + file);
         } catch (IOException e) {
-            throw new RuntimeException("Can't find an open socket", e);
+            getLog().warn("Unable to write the phase timings to " + file, e);
+        }
+    }
+
+    private PortAllocator.Reservation reservePorts(int count) throws MojoExecutionException {
+        try {
+            return PortAllocator.shared().reserve(count);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can't reserve a port for the test server", e);
+        }
+    }
+
+    private void releasePorts(PortAllocator.Reservation reservation) {
+        if (reservation != null) {
+            try {
+                reservation.close();
+            } catch (IOException e) {
+                getLog().warn("Unable to release the reserved ports " + reservation.ports(), e);
+            }
+        }
+    }
+
+    // Replaces the failures of the cases that passed on a retry with their flaky results.
+    private static H3SpecResult withFlaky(H3SpecResult result, Map<String, H3SpecCaseResult> flaky) {
+        if (flaky.isEmpty()) {
+            return result;
+        }
+        List<H3SpecCaseResult> results = new ArrayList<>(result.results().size());
+        for (H3SpecCaseResult r: result.results()) {
+            results.add(r.isFailure() ? flaky.getOrDefault(r.id(), r) : r);
+        }
+        return new H3SpecResult(results, result.failureDetails());
+    }
+
+    private H3Spec.Config newConfig(String host, int port) {
+        H3Spec.Config config = new H3Spec.Config(host, port, excludeSpecs, timeoutMillis, debug);
+        return adaptiveTimeouts ? config.withAdaptiveTimeouts(timeoutMultiplier, minTimeoutMillis) : config;
+    }
+
+    private void failFast(H3SpecCaseResult result, H3Spec.Abort abort) {
+        if (failFast && result.isFailure()) {
+            abort.abort("failFast, " + result.id() + " failed");
+        }
+    }
+
+    private String serverKey() {
+        return mainClass + " port=" + port + " fork=" + fork + (fork ? " " + getForkJvmArgs() : "");
+    }
+
+    private void warmup(H3Spec.Config config, H3Spec.Abort abort) throws IOException {
+        for (int i = 1; i <= warmupIterations && !abort.isAborted(); i++) {
+            H3SpecResult result;
+            try (PhaseTimer.Phase ignore = timer.start("warmup")) {
+                result = H3Spec.execute(h3specCacheDirectory, config, 1, new H3SpecDurations(),
+                        H3SpecOutputParser.Listener.NOOP, null, PhaseTimer.NOOP, abort);
+            }
+            int failed = 0;
+            for (H3SpecCaseResult r: result.results()) {
+                if (r.isFailure()) {
+                    failed++;
+                }
+            }
+            getLog().info("Warmup pass " + i + ": " + result.results().size() + " test cases, " + failed +
+                    " failed (discarded)");
+        }
+    }
+
+    private void executeMatrix(String host) throws MojoExecutionException {
+        File reportsDirectory = new File(new File(project.getBuild().getDirectory()), "h3spec-reports");
+        List<String> names = new ArrayList<>();
+        for (Variant variant: variants) {
+            String name = variant.name();
+            // Used in file names, see runVariant and variantDurationsFile.
+            if (name == null || !VARIANT_NAME.matcher(name).matches()) {
+                throw new MojoExecutionException("Invalid variant name '" + name +
+                        "', only letters, digits, '.', '_' and '-' are allowed");
+            }
+            if (names.contains(name)) {
+                throw new MojoExecutionException("Duplicate variant name '" + name + "'");
+            }
+            names.add(name);
+        }
+        warnIgnoredInMatrix();
+        H3SpecMatrix matrix = new H3SpecMatrix(names);
+        List<ForkedServer> servers = new ArrayList<>();
+        List<ServerMonitor> monitors = new ArrayList<>();
+        PortAllocator.Reservation reservation = reservePorts(variants.size());
+        ExecutorService executor = Executors.newFixedThreadPool(variants.size(), r -> {
+            Thread thread = new Thread(r, "h3spec-matrix");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            if (!reportsDirectory.isDirectory() && !reportsDirectory.mkdirs()) {
+                throw new IOException("Can't create directory " + reportsDirectory.getAbsolutePath());
+            }
+            List<String> classpath = getClasspathElements();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < variants.size(); i++) {
+                Variant variant = variants.get(i);
+                H3Spec.Abort abort = new H3Spec.Abort();
+                ServerMonitor monitor = new ServerMonitor(readyMessage, abortMessages, leakMessages, abort);
+                List<String> variantJvmArgs = new ArrayList<>(getForkJvmArgs());
+                variantJvmArgs.addAll(variant.jvmArgs());
+                ForkedServer server = new ForkedServer(ForkedServer.currentJavaExecutable(), variantJvmArgs,
+                        classpath, monitor);
+                monitors.add(monitor);
+                servers.add(server);
+                int variantPort = reservation.ports().get(i);
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    runVariant(index, variant, server, monitor, host, variantPort, reservation, matrix,
+                            reportsDirectory);
+                    return null;
+                }));
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+
+            File report = new File(reportsDirectory, "h3spec-matrix.csv");
+            matrix.writeReport(report);
+            getLog().info(matrix.summary(regressionRatio, regressionThresholdMillis));
+            int leaks = 0;
+            for (int i = 0; i < monitors.size(); i++) {
+                H3Spec.Abort abort = monitors.get(i).abort();
+                if (abort.isAborted()) {
+                    throw new MojoFailureException("h3spec run of " + names.get(i) + " aborted: " + abort.reason());
+                }
+                leaks += monitors.get(i).leaks();
+            }
+            checkLeaks(leaks);
+            if (matrix.hasFailures()) {
+                throw new MojoFailureException("Test cases failed in at least one variant, see " + report);
+            }
+            getLog().info("All test cases passed in all variants.");
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Failure during execution", e.getCause());
+        } catch (Throwable e) {
+            throw new MojoExecutionException("Failure during execution", e);
+        } finally {
+            executor.shutdownNow();
+            for (ForkedServer server: servers) {
+                server.close();
+            }
+            releasePorts(reservation);
+        }
+    }
+
+    private void runVariant(int index, Variant variant, ForkedServer server, ServerMonitor monitor, String host,
+                            int port, PortAllocator.Reservation reservation, H3SpecMatrix matrix,
+                            File reportsDirectory) throws Exception {
+        String name = variant.name();
+        // Every variant has its own durations, timings of different transports or configurations don't mix.
+        File variantDurationsFile = variantDurationsFile(name);
+        H3SpecDurations durations = H3SpecDurations.load(variantDurationsFile);
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(port));
+        args.addAll(variant.args());
+        server.start(variant.mainClass() == null ? mainClass : variant.mainClass(), args.toArray(new String[0]));
+        awaitServer(host, port, monitor);
+        reservation.release(port);
+
+        H3Spec.Config config = newConfig(host, port);
+        File junitFile = new File(reportsDirectory, "TEST-h3spec-" + name + ".xml");
+        List<H3SpecReporter> reporters = Collections.singletonList(
+                new JUnitXmlReporter(junitFile, getClass().getName() + "." + name));
+        File tracesDirectory = new File(reportsDirectory, "h3spec-traces-" + name);
+        H3SpecTraceWriter traces = debug ? new H3SpecTraceWriter(tracesDirectory, keepPassingTraces) : null;
+        try {
+            AtomicInteger executed = new AtomicInteger();
+            H3SpecResult result = H3Spec.execute(h3specCacheDirectory, config, parallelism, durations, r -> {
+                report(reporters, r);
+                failFast(r, monitor.abort());
+                getLog().info("[" + name + " " + executed.incrementAndGet() + "] " +
+                        (r.isFailure() ? "FAILED " : "passed ") + r.id());
+            }, traces, timer, monitor.abort());
+            matrix.record(index, result);
         } finally {
-            if (socket != null) {
+            closeReporters(reporters);
+            closeTraces(traces, tracesDirectory);
+        }
+        try {
+            durations.save(variantDurationsFile);
+        } catch (IOException e) {
+            getLog().warn("Unable to store h3spec durations in " + variantDurationsFile, e);
+        }
+    }
+
+    /**
+     * Returns {@code durationsFile} with the name of the variant added before the extension, for example
+     * {@code h3spec-durations-epoll.properties}.
+     */
+    private File variantDurationsFile(String name) {
+        String fileName = durationsFile.getName();
+        int dot = fileName.lastIndexOf('.');
+        String variantName = dot <= 0 ? fileName + "-" + name :
+                fileName.substring(0, dot) + "-" + name + fileName.substring(dot);
+        return new File(durationsFile.getParentFile(), variantName);
+    }
+
+    private void warnIgnoredInMatrix() {
+        List<String> ignored = new ArrayList<>();
+        if (reporters != null && !reporters.isEmpty()) {
+            ignored.add("reporters");
+        }
+        if (soakIterations > 1 || soakDurationMillis > 0) {
+            ignored.add("soakIterations/soakDurationMillis");
+        }
+        if (loadClients > 0) {
+            ignored.add("loadClients");
+        }
+        if (warmupIterations > 0) {
+            ignored.add("warmupIterations");
+        }
+        if (retryFailedCases > 0) {
+            ignored.add("retryFailedCases");
+        }
+        if (reuseServer) {
+            ignored.add("reuseServer");
+        }
+        if (leakAudit) {
+            ignored.add("leakAudit");
+        }
+        if (flightRecording) {
+            ignored.add("flightRecording");
+        }
+        if (resourceSampling) {
+            ignored.add("resourceSampling");
+        }
+        if (skipUnchanged) {
+            ignored.add("skipUnchanged");
+        }
+        if (baselineFile != null) {
+            ignored.add("baselineFile");
+        }
+        for (String option: ignored) {
+            getLog().warn(option + " is not supported together with variants and is ignored");
+        }
+    }
+
+    private void awaitServer(String host, int port, ServerMonitor monitor) throws IOException, InterruptedException {
+        try (PhaseTimer.Phase ignore = timer.start("await server")) {
+            if (readinessProbe) {
+                if (!QuicReadinessProbe.await(host, port, readinessTimeoutMillis, monitor.abort()) &&
+                        !monitor.abort().isAborted()) {
+                    getLog().warn("Server on " + host + ":" + port + " did not answer the readiness probe within "
+                            + readinessTimeoutMillis + "ms, running h3spec anyway");
+                }
+            } else {
                 try {
-                    socket.close();
-                } catch (IOException e) {
-                    System.err.println("Can't close server socket.");
+                    // wait for a few milliseconds to give the server some time to startup
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
+
+            // Wait for the ready message, if any
+            monitor.awaitReady();
         }
     }
 
-    private boolean writeJUnitXmlReport(List<H3SpecCaseResult> results, File junitFile) throws Exception {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory .newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        String className = getClass().getName();
-        int failures = 0;
-        Document doc = docBuilder.newDocument();
-        Element rootElement = doc.createElement("testsuite");
-        rootElement.setAttribute("name", className);
-        rootElement.setAttribute("tests", Integer.toString(results.size()));
-        rootElement.setAttribute("errors", Integer.toString(0));
-        rootElement.setAttribute("skipped", Integer.toString(0));
+    private void checkLeaks(int leaks) throws MojoFailureException {
+        if (leaks > 0) {
+            String message = "Test server reported " + leaks + " resource leak(s)";
+            if (failOnLeak) {
+                throw new MojoFailureException(message);
+            }
+            getLog().warn(message);
+        }
+    }
 
-        for (H3SpecCaseResult r: results) {
-            Element testcase = doc.createElement("testcase");
-            testcase.setAttribute("classname", "H3Spec");
-            testcase.setAttribute("name", r.name() + " " + r.rfcSection());
+    private void auditResources(ResourceAudit audit) throws InterruptedException, MojoFailureException {
+        ResourceAudit.Diff diff;
+        try (PhaseTimer.Phase ignore = timer.start("leak audit")) {
+            diff = audit.diff(leakAuditSettleMillis);
+        }
+        if (diff.isEmpty()) {
+            getLog().info("The test server left no resources behind");
+            return;
+        }
+        getLog().warn(diff.toString());
+        List<String> exceeded = new ArrayList<>();
+        if (maxLeakedDirectMemory >= 0 && diff.directMemory() > maxLeakedDirectMemory) {
+            exceeded.add(diff.directMemory() + " bytes direct memory (max " + maxLeakedDirectMemory + ")");
+        }
+        if (maxLeakedThreads >= 0 && diff.threads() > maxLeakedThreads) {
+            exceeded.add(diff.threads() + " threads (max " + maxLeakedThreads + ")");
+        }
+        if (maxLeakedFileDescriptors >= 0 && diff.fileDescriptors() > maxLeakedFileDescriptors) {
+            exceeded.add(diff.fileDescriptors() + " file descriptors (max " + maxLeakedFileDescriptors + ")");
+        }
+        if (!exceeded.isEmpty()) {
+            throw new MojoFailureException("Test server left " + String.join(", ", exceeded) + " behind");
+        }
+    }
 
-            if (r.isFailure()) {
-                Element failure = doc.createElement("failure");
-                failure.setAttribute("type", "behaviorMissmatch");
-                testcase.appendChild(failure);
-                failures++;
+    private String computeFingerprint(H3Spec.Config config) throws MojoExecutionException {
+        try {
+            List<String> values = new ArrayList<>();
+            values.add("h3spec=" + H3Spec.binaryHash());
+            values.add("config=" + config.fingerprint());
+            values.add("mainClass=" + mainClass);
+            values.add("fork=" + fork + " " + (fork ? getForkJvmArgs() : ""));
+            if (baselineFile != null && baselineFile.isFile()) {
+                values.add("baseline=" + H3SpecBinaryCache.hash(baselineFile) + ", failOnRegression=" +
+                        failOnRegression + ", ratio=" + regressionRatio + ", threshold=" + regressionThresholdMillis);
             }
+            if (adaptiveTimeouts && durationsFile.isFile()) {
+                // The recorded durations decide the timeouts.
+                values.add("durations=" + H3SpecBinaryCache.hash(durationsFile));
+            }
+            values.add("abortMessages=" + abortMessages + ", leakMessages=" + leakMessages +
+                    ", failOnLeak=" + failOnLeak);
+            // Everything else that decides if the run passes.
+            values.add("soakIterations=" + soakIterations + ", soakDurationMillis=" + soakDurationMillis +
+                    ", parallelism=" + parallelism + ", failFast=" + failFast);
+            values.add("readyMessage=" + readyMessage + ", readinessProbe=" + readinessProbe +
+                    ", readinessTimeoutMillis=" + readinessTimeoutMillis + ", delay=" + delay);
+            values.add("warmupIterations=" + warmupIterations + ", reuseServer=" + reuseServer);
+            values.add("loadClients=" + loadClients + ", loadStaggerMillis=" + loadStaggerMillis +
+                    ", failOnLoadFailures=" + failOnLoadFailures);
+            values.add("retryFailedCases=" + retryFailedCases);
+            values.add("leakAudit=" + leakAudit + ", leakAuditSettleMillis=" + leakAuditSettleMillis +
+                    ", maxLeakedDirectMemory=" + maxLeakedDirectMemory + ", maxLeakedThreads=" + maxLeakedThreads +
+                    ", maxLeakedFileDescriptors=" + maxLeakedFileDescriptors);
+            return H3SpecFingerprint.compute(getClasspathElements(), values);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to compute the fingerprint of the inputs", e);
+        }
+    }
 
-            rootElement.appendChild(testcase);
+    private void compareWithBaseline(List<H3SpecCaseResult> results) throws IOException, MojoFailureException {
+        if (baselineFile == null) {
+            return;
+        }
+        if (updateBaseline) {
+            H3SpecBaseline.write(baselineFile, results);
+            getLog().info("Baseline written to " + baselineFile);
+            return;
         }
-        rootElement.setAttribute("failures", Integer.toString(failures));
-        rootElement.setAttribute("time", "0");
-        doc.appendChild(rootElement);
+        if (!baselineFile.isFile()) {
+            getLog().warn("Baseline " + baselineFile + " does not exist, set updateBaseline to create it");
+            return;
+        }
+        H3SpecBaseline.Comparison comparison = H3SpecBaseline.load(baselineFile)
+                .compare(results, regressionRatio, regressionThresholdMillis);
+        if (comparison.hasRegressions()) {
+            if (failOnRegression) {
+                throw new MojoFailureException(comparison.toString());
+            }
+            getLog().warn(comparison.toString());
+        } else {
+            getLog().info(comparison.toString());
+        }
+    }
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    private boolean restoreUnchanged(String fingerprint, File junitFile) throws MojoExecutionException {
+        try {
+            File reportsDirectory = junitFile.getParentFile();
+            if (!reportsDirectory.isDirectory() && !reportsDirectory.mkdirs()) {
+                getLog().debug("Failed to create report directory");
+                return false;
+            }
+            return H3SpecFingerprint.restore(fingerprintDirectory, fingerprint, junitFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to restore the report of the last run", e);
+        }
+    }
+
+    private void writeResourceReports(File samplesFile, List<H3SpecCaseResult> results, File reportsDirectory)
+            throws IOException {
+        File timeSeries = new File(reportsDirectory, "h3spec-resources.csv");
+        try (PhaseTimer.Phase ignore = timer.start("resource reports")) {
+            ResourceReport report = ResourceReport.read(samplesFile);
+            report.writeTimeSeries(results, timeSeries);
+            report.writeByCase(results, new File(reportsDirectory, "h3spec-resources-by-case.csv"));
+        }
+        if (!samplesFile.delete()) {
+            getLog().debug("Unable to delete " + samplesFile);
+        }
+        getLog().info("Resource samples written to " + timeSeries);
+    }
+
+    private void logSlowestCases(List<H3SpecCaseResult> results) {
+        if (slowestCases <= 0 || results.isEmpty()) {
+            return;
+        }
+        List<H3SpecCaseResult> sorted = new ArrayList<>(results);
+        sorted.sort((a, b) -> Long.compare(b.durationNanos(), a.durationNanos()));
+        int count = Math.min(slowestCases, sorted.size());
+        StringBuilder sb = new StringBuilder("Slowest " + count + " test cases:\n");
+        for (int i = 0; i < count; i++) {
+            H3SpecCaseResult r = sorted.get(i);
+            sb.append("\t").append(formatSeconds(r.durationNanos())).append("s ").append(r.id()).append("\n");
+        }
+        getLog().info(sb.toString());
+    }
+
+    private List<H3SpecReporter> createReporters(File reportsDirectory) throws IOException {
+        Set<String> types = new LinkedHashSet<>();
+        types.add("junit");
+        if (reporters != null) {
+            for (String type: reporters) {
+                types.add(type.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        List<H3SpecReporter> list = new ArrayList<>(types.size());
+        try {
+            for (String type: types) {
+                list.add(H3SpecReporter.create(type, reportsDirectory, getClass().getName()));
+            }
+        } catch (IOException | RuntimeException e) {
+            closeReporters(list);
+            throw e;
+        }
+        return list;
+    }
+
+    private void report(List<H3SpecReporter> reporters, H3SpecCaseResult result) {
+        // Called for every case, so only the total is kept.
+        long start = System.nanoTime();
+        for (H3SpecReporter reporter: reporters) {
+            try {
+                reporter.onCaseResult(result);
+            } catch (IOException e) {
+                getLog().warn("Unable to report " + result.id(), e);
+            }
+        }
+        timer.add("write reports", System.nanoTime() - start);
+    }
+
+    private void closeReporters(List<H3SpecReporter> reporters) {
+        try (PhaseTimer.Phase ignore = timer.start("close reports")) {
+            for (H3SpecReporter reporter: reporters) {
+                try {
+                    reporter.close();
+                } catch (IOException e) {
+                    getLog().warn("Unable to finish report", e);
+                }
+            }
+        }
+    }
+
+    private void closeTraces(H3SpecTraceWriter traces, File tracesDirectory) {
+        if (traces == null) {
+            return;
+        }
+        try {
+            traces.close();
+            getLog().info(traces.files() + " debug trace(s) written to " + tracesDirectory);
+        } catch (IOException e) {
+            getLog().warn("Unable to write debug traces to " + tracesDirectory, e);
+        }
+    }
 
-        DOMSource source = new DOMSource(doc);
-        StreamResult result = new StreamResult(junitFile);
-        transformer.transform(source, result);
-        return failures > 0;
+    private static String formatSeconds(long nanos) {
+        return JUnitXmlReporter.formatSeconds(nanos);
     }
 }
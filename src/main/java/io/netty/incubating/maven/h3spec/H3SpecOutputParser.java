@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link OutputStream} which parses the output of h3spec line by line while it is written, so results are available
+ * as soon as h3spec prints them. Only the current line is buffered; lines longer than {@link #MAX_LINE_LENGTH} are
+ * truncated and the collected failure details are capped at {@link #MAX_FAILURE_DETAILS} characters.
+ * <p>
+ * h3spec runs the cases one after another and prints each result once the case is done, so a case is considered to
+ * start when the previous result line arrived (or when the parser was created) and to end when its own result line
+ * arrives.
+ */
+final class H3SpecOutputParser extends OutputStream {
+
+    // Passing cases are printed without a suffix, failing ones with " FAILED [n]".
+    private static final Pattern PATTERN = Pattern.compile(" {2}(MUST.+?) (\\[[^\\]]+])( FAILED.*)?\\s*");
+
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+    static final int MAX_FAILURE_DETAILS = 1024 * 1024;
+
+    /**
+     * Notified for each case result, from the thread that writes the output.
+     */
+    interface Listener {
+        Listener NOOP = result -> { };
+
+        void onCaseResult(H3SpecCaseResult result);
+    }
+
+    private final Listener listener;
+    private final H3SpecTraceWriter.Trace trace;
+    private final Charset charset = Charset.defaultCharset();
+    private final List<H3SpecCaseResult> results = new ArrayList<>();
+    private final StringBuilder failureDetails = new StringBuilder();
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean failure;
+    private boolean truncated;
+    // Wall clock and monotonic time at which the parser was created, the start of every case is derived from both
+    // so rounding errors don't add up over a run.
+    private final long baseMillis;
+    private final long baseNanos;
+    private long caseStartNanos;
+    private long parseNanos;
+
+    H3SpecOutputParser(Listener listener) {
+        this(listener, null);
+    }
+
+    /**
+     * @param trace receives all lines which are neither results nor failure details, split per case, or
+     *              {@code null}. The parsers of both output streams of a process share one trace.
+     */
+    H3SpecOutputParser(Listener listener, H3SpecTraceWriter.Trace trace) {
+        this.listener = listener;
+        this.trace = trace;
+        baseMillis = System.currentTimeMillis();
+        baseNanos = System.nanoTime();
+        caseStartNanos = baseNanos;
+    }
+
+    @Override
+    public void write(int b) {
+        if (b == '\n') {
+            processLine();
+        } else {
+            append((byte) b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        long start = System.nanoTime();
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n') {
+                processLine();
+            } else {
+                append(b[i]);
+            }
+        }
+        parseNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Process the last line, even if it was not terminated. The trace is left to its owner, as it may be shared with
+     * the parser of the other output stream.
+     */
+    @Override
+    public void close() {
+        if (lineLength > 0) {
+            processLine();
+        }
+    }
+
+    /**
+     * Time spent parsing the output written in chunks so far, without the time spent in the {@link Listener}.
+     */
+    long parseNanos() {
+        return parseNanos;
+    }
+
+    List<H3SpecCaseResult> results() {
+        return results;
+    }
+
+    StringBuilder failureDetails() {
+        return failureDetails;
+    }
+
+    private void append(byte b) {
+        if (lineLength == line.length) {
+            if (line.length == MAX_LINE_LENGTH) {
+                return;
+            }
+            line = Arrays.copyOf(line, Math.min(MAX_LINE_LENGTH, line.length << 1));
+        }
+        line[lineLength++] = b;
+    }
+
+    private void processLine() {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        String outLine = new String(line, 0, length, charset);
+        lineLength = 0;
+
+        if (failure) {
+            appendFailureDetails(outLine);
+        } else {
+            Matcher matcher = PATTERN.matcher(outLine);
+            if (matcher.matches()) {
+                long endNanos = System.nanoTime();
+                H3SpecCaseResult result = new H3SpecCaseResult(matcher.group(1), matcher.group(2),
+                        matcher.group(3) != null,
+                        baseMillis + TimeUnit.NANOSECONDS.toMillis(caseStartNanos - baseNanos),
+                        endNanos - caseStartNanos);
+                caseStartNanos = endNanos;
+                results.add(result);
+                if (trace != null) {
+                    trace.finish(result);
+                }
+                long listenerStart = System.nanoTime();
+                listener.onCaseResult(result);
+                parseNanos -= System.nanoTime() - listenerStart;
+            } else if (outLine.startsWith("Failures:")) {
+                failure = true;
+                appendFailureDetails(outLine);
+            } else if (trace != null) {
+                trace.line(line, 0, length);
+            }
+        }
+    }
+
+    private void appendFailureDetails(String outLine) {
+        if (truncated) {
+            return;
+        }
+        if (failureDetails.length() + outLine.length() + 1 > MAX_FAILURE_DETAILS) {
+            failureDetails.append("... (truncated)\n");
+            truncated = true;
+        } else {
+            failureDetails.append(outLine).append("\n");
+        }
+    }
+}
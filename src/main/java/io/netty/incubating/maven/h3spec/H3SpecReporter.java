@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the results of a run to disk while it is running. Every result is on disk as soon as
+ * {@link #onCaseResult(H3SpecCaseResult)} returns and the file is valid at any time, so a report survives a run that
+ * is killed. Implementations are thread-safe, as shards report their results concurrently.
+ */
+interface H3SpecReporter extends Closeable {
+
+    void onCaseResult(H3SpecCaseResult result) throws IOException;
+
+    /**
+     * Finish the report, no results can be added afterwards.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Creates the reporter for the given type: {@code junit}, {@code jsonl} or {@code open-test-reporting}.
+     */
+    static H3SpecReporter create(String type, File reportsDirectory, String suiteName) throws IOException {
+        switch (type) {
+            case "junit":
+                return new JUnitXmlReporter(new File(reportsDirectory, "TEST-h3spec.xml"), suiteName);
+            case "jsonl":
+                return new JsonLinesReporter(new File(reportsDirectory, "h3spec.jsonl"));
+            case "open-test-reporting":
+                return new OpenTestReportingReporter(new File(reportsDirectory, "open-test-report.xml"), suiteName);
+            default:
+                throw new IllegalArgumentException("Unknown reporter: " + type +
+                        " (supported: junit, jsonl, open-test-reporting)");
+        }
+    }
+}
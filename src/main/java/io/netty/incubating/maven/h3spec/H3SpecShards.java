@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Splits the known cases into shards of roughly the same total duration.
+ */
+final class H3SpecShards {
+
+    private H3SpecShards() { }
+
+    /**
+     * Distributes the given cases over {@code shards} buckets using the longest-processing-time-first heuristic:
+     * cases are sorted by their duration (longest first) and each one is put into the bucket with the smallest
+     * total so far. Empty buckets are dropped.
+     */
+    static List<List<String>> plan(Map<String, Long> durations, int shards) {
+        List<Map.Entry<String, Long>> cases = new ArrayList<>(durations.entrySet());
+        cases.sort((a, b) -> {
+            int cmp = Long.compare(b.getValue(), a.getValue());
+            return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+        });
+
+        int buckets = Math.max(1, Math.min(shards, cases.size()));
+        PriorityQueue<Shard> queue = new PriorityQueue<>(buckets);
+        List<Shard> all = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            Shard shard = new Shard(i);
+            all.add(shard);
+            queue.add(shard);
+        }
+        for (Map.Entry<String, Long> entry: cases) {
+            Shard shard = queue.poll();
+            shard.cases.add(entry.getKey());
+            shard.total += entry.getValue();
+            queue.add(shard);
+        }
+
+        List<List<String>> plan = new ArrayList<>(buckets);
+        for (Shard shard: all) {
+            if (!shard.cases.isEmpty()) {
+                plan.add(Collections.unmodifiableList(shard.cases));
+            }
+        }
+        return plan;
+    }
+
+    private static final class Shard implements Comparable<Shard> {
+        private final int index;
+        private final List<String> cases = new ArrayList<>();
+        private long total;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(Shard o) {
+            int cmp = Long.compare(total, o.total);
+            return cmp != 0 ? cmp : Integer.compare(index, o.index);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the results of several runs of the suite against the same server, keeping a {@link LatencyHistogram}
+ * and the number of failures per case.
+ */
+final class H3SpecSoak {
+    private final Map<String, CaseStats> stats = new LinkedHashMap<>();
+    private int iterations;
+    private String failureDetails;
+
+    void record(H3SpecResult result) {
+        iterations++;
+        for (H3SpecCaseResult r: result.results()) {
+            CaseStats caseStats = stats.get(r.id());
+            if (caseStats == null) {
+                caseStats = new CaseStats(r);
+                stats.put(r.id(), caseStats);
+            }
+            caseStats.histogram.record(TimeUnit.NANOSECONDS.toMicros(r.durationNanos()));
+            if (r.isFailure()) {
+                caseStats.failures++;
+            }
+        }
+        // Keep the details of the first iteration that failed, they are most likely the same for later ones.
+        if (failureDetails == null && result.failureDetails() != null && !result.failureDetails().isEmpty()) {
+            failureDetails = result.failureDetails();
+        }
+    }
+
+    int iterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns one result per case which is a failure if it failed in any iteration, with the median duration.
+     */
+    H3SpecResult aggregate() {
+        List<H3SpecCaseResult> results = new ArrayList<>(stats.size());
+        for (CaseStats caseStats: stats.values()) {
+            H3SpecCaseResult first = caseStats.first;
+            results.add(new H3SpecCaseResult(first.name(), first.rfcSection(), caseStats.failures > 0,
+                    first.startMillis(), TimeUnit.MICROSECONDS.toNanos(caseStats.histogram.percentile(50))));
+        }
+        return new H3SpecResult(results, failureDetails == null ? "" : failureDetails);
+    }
+
+    /**
+     * Returns a human readable summary with the {@code limit} cases with the highest p99 and all flaky cases, which
+     * are the ones that failed in some but not all iterations.
+     */
+    String summary(int limit) {
+        List<CaseStats> sorted = new ArrayList<>(stats.values());
+        sorted.sort((a, b) -> Long.compare(b.histogram.percentile(99), a.histogram.percentile(99)));
+        StringBuilder sb = new StringBuilder();
+        sb.append("Soak summary after ").append(iterations).append(" iterations (p50 / p99 / max):\n");
+        for (int i = 0; i < Math.min(limit, sorted.size()); i++) {
+            appendLine(sb, sorted.get(i));
+        }
+        int flaky = 0;
+        int failing = 0;
+        for (CaseStats caseStats: stats.values()) {
+            if (caseStats.isFlaky()) {
+                if (flaky++ == 0) {
+                    sb.append("Flaky test cases (failures / runs):\n");
+                }
+                sb.append("\t").append(caseStats.failures).append(" / ").append(caseStats.histogram.count())
+                        .append(" ").append(caseStats.first.id()).append("\n");
+            } else if (caseStats.failures > 0) {
+                failing++;
+            }
+        }
+        sb.append(flaky).append(" flaky, ").append(failing).append(" always failing test cases.");
+        return sb.toString();
+    }
+
+    void writeReport(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8);
+             PrintWriter out = new PrintWriter(writer)) {
+            out.println("case,runs,failures,p50_ms,p99_ms,max_ms");
+            for (CaseStats caseStats: stats.values()) {
+                LatencyHistogram histogram = caseStats.histogram;
+                out.println(String.format(Locale.ROOT, "\"%s\",%d,%d,%.3f,%.3f,%.3f",
+                        caseStats.first.id().replace("\"", "\"\""), histogram.count(), caseStats.failures,
+                        histogram.percentile(50) / 1000.0, histogram.percentile(99) / 1000.0,
+                        histogram.max() / 1000.0));
+            }
+        }
+    }
+
+    private static void appendLine(StringBuilder sb, CaseStats caseStats) {
+        LatencyHistogram histogram = caseStats.histogram;
+        sb.append(String.format(Locale.ROOT, "\t%.3fs / %.3fs / %.3fs %s\n",
+                histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6, histogram.max() / 1e6,
+                caseStats.first.id()));
+    }
+
+    private static final class CaseStats {
+        private final H3SpecCaseResult first;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long failures;
+
+        CaseStats(H3SpecCaseResult first) {
+            this.first = first;
+        }
+
+        boolean isFlaky() {
+            return failures > 0 && failures < histogram.count();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Derives per-case timeouts from the recorded durations. h3spec only supports one timeout per process, so the cases
+ * are grouped by their timeout and every group is run by its own process.
+ */
+final class H3SpecTimeouts {
+
+    private H3SpecTimeouts() { }
+
+    /**
+     * Groups the known cases by timeout. The timeout of a case is {@code multiplier} times the p99 of its recorded
+     * durations, rounded up to {@code minTimeoutMillis} times a power of two so there are only a few groups, and at
+     * most {@code maxTimeoutMillis} if that is not negative.
+     *
+     * @return the cases of every group, keyed and sorted by their timeout in milliseconds.
+     */
+    static Map<Long, List<String>> plan(H3SpecDurations durations, double multiplier, long minTimeoutMillis,
+                                        long maxTimeoutMillis) {
+        Map<Long, List<String>> groups = new TreeMap<>();
+        for (String id: durations.asMap().keySet()) {
+            double wanted = durations.percentile(id, 0.99) * multiplier;
+            long timeout = Math.max(1, minTimeoutMillis);
+            while (timeout < wanted && (maxTimeoutMillis < 0 || timeout < maxTimeoutMillis)) {
+                timeout <<= 1;
+            }
+            if (maxTimeoutMillis >= 0) {
+                timeout = Math.min(timeout, maxTimeoutMillis);
+            }
+            groups.computeIfAbsent(timeout, t -> new ArrayList<>()).add(id);
+        }
+        for (List<String> group: groups.values()) {
+            group.sort(null);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the {@code --debug} trace of every case to its own gzip file, named after the case. The output is split
+ * at the result lines: everything printed since the previous result belongs to the case, no matter if it was printed
+ * to stdout or stderr. Compression and writing happen on a separate thread; if it falls behind, the threads that
+ * parse the output block, so the memory used stays bounded. The chunks handed to the writer thread are reused.
+ */
+final class H3SpecTraceWriter implements Closeable {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_TASKS = 256;
+    private static final int MAX_POOLED_CHUNKS = 16;
+    private static final int MAX_NAME_LENGTH = 150;
+    private static final Runnable STOP = () -> { };
+
+    private final File directory;
+    private final boolean keepPassing;
+    private final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(MAX_PENDING_TASKS);
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_POOLED_CHUNKS);
+    private final AtomicInteger files = new AtomicInteger();
+    private final Thread writer;
+    private volatile IOException error;
+
+    /**
+     * @param directory   the directory for the trace files.
+     * @param keepPassing {@code true} to keep the traces of passing cases too, otherwise only the traces of failed
+     *                    cases are kept.
+     */
+    H3SpecTraceWriter(File directory, boolean keepPassing) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.keepPassing = keepPassing;
+        writer = new Thread(this::writeTraces, "h3spec-trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns a new trace for one h3spec process, shared by the parsers of its stdout and stderr. The process owns
+     * it and discards what is left once both are closed.
+     */
+    Trace newTrace() {
+        return new Trace();
+    }
+
+    /**
+     * Returns the number of trace files written so far.
+     */
+    int files() {
+        return files.get();
+    }
+
+    /**
+     * Waits until all traces are written.
+     */
+    @Override
+    public void close() throws IOException {
+        submit(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing traces", e);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            tasks.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeTraces() {
+        for (;;) {
+            Runnable task;
+            try {
+                task = tasks.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            task.run();
+        }
+    }
+
+    private File traceFile(H3SpecCaseResult result) {
+        String name = result.id().replaceAll("[^A-Za-z0-9._-]+", "_");
+        if (name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, MAX_NAME_LENGTH);
+        }
+        // Prefixed with a counter as a case may run more than once, for example in soak mode.
+        return new File(directory, String.format(Locale.ROOT, "%05d-%s%s.txt.gz", files.incrementAndGet(),
+                result.isFailure() ? "FAILED-" : "", name));
+    }
+
+    private byte[] newChunk() {
+        byte[] chunk = chunks.poll();
+        return chunk != null ? chunk : new byte[CHUNK_SIZE];
+    }
+
+    private void releaseChunk(byte[] chunk) {
+        if (chunk.length == CHUNK_SIZE) {
+            // Dropped if the pool is full.
+            chunks.offer(chunk);
+        }
+    }
+
+    /**
+     * The trace of the cases of one h3spec process. Lines are collected in chunks which are handed to the writer
+     * thread, which is the only one that touches the file. Lines and results may come from the threads of both
+     * output streams.
+     */
+    final class Trace {
+        // Guarded by this.
+        private byte[] chunk = newChunk();
+        private int chunkLength;
+        // Only accessed by the writer thread.
+        private File tmp;
+        private OutputStream out;
+
+        private Trace() { }
+
+        synchronized void line(byte[] bytes, int off, int len) {
+            if (chunkLength + len + 1 > chunk.length) {
+                flushChunk();
+                if (len + 1 > chunk.length) {
+                    chunk = new byte[len + 1];
+                }
+            }
+            System.arraycopy(bytes, off, chunk, chunkLength, len);
+            chunkLength += len;
+            chunk[chunkLength++] = '\n';
+        }
+
+        /**
+         * The case is done, keep its trace if it failed or passing traces are kept.
+         */
+        synchronized void finish(H3SpecCaseResult result) {
+            flushChunk();
+            boolean keep = result.isFailure() || keepPassing;
+            submit(() -> {
+                if (keep && out != null) {
+                    try {
+                        out.close();
+                        out = null;
+                        Files.move(tmp.toPath(), traceFile(result).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        tmp = null;
+                    } catch (IOException e) {
+                        failed(e);
+                    }
+                }
+                discardFile();
+            });
+        }
+
+        /**
+         * Drop whatever was printed after the last case.
+         */
+        synchronized void discard() {
+            chunkLength = 0;
+            submit(this::discardFile);
+        }
+
+        private void flushChunk() {
+            if (chunkLength == 0) {
+                return;
+            }
+            byte[] bytes = chunk;
+            int length = chunkLength;
+            chunk = newChunk();
+            chunkLength = 0;
+            submit(() -> {
+                try {
+                    if (out == null) {
+                        tmp = File.createTempFile("trace", ".tmp", directory);
+                        out = new GZIPOutputStream(new FileOutputStream(tmp), CHUNK_SIZE);
+                    }
+                    out.write(bytes, 0, length);
+                } catch (IOException e) {
+                    failed(e);
+                } finally {
+                    releaseChunk(bytes);
+                }
+            });
+        }
+
+        private void discardFile() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                    // Deleted anyway.
+                }
+                out = null;
+            }
+            if (tmp != null) {
+                if (!tmp.delete()) {
+                    tmp.deleteOnExit();
+                }
+                tmp = null;
+            }
+        }
+
+        private void failed(IOException e) {
+            if (error == null) {
+                error = e;
+            }
+            discardFile();
+        }
+    }
+}
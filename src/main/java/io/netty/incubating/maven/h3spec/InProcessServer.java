@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link TestServer} which runs on a daemon thread of the Maven JVM, loaded through the test classpath.
+ */
+final class InProcessServer implements TestServer {
+    private final ClassLoader classLoader;
+    private final StreamMatcher matcher;
+    private final StreamMatcher.Listener matchListener;
+    private Thread runner;
+
+    InProcessServer(ClassLoader classLoader, StreamMatcher matcher, StreamMatcher.Listener matchListener) {
+        this.classLoader = classLoader;
+        this.matcher = matcher;
+        this.matchListener = matchListener;
+    }
+
+    @Override
+    public void start(String mainClass, String[] args) throws Throwable {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        runner = new Thread(() -> {
+            PrintStream oldOut = System.out;
+            PrintStream oldErr = System.err;
+            if (matcher.patterns() > 0) {
+                // Auto-flushing print streams as required for System.out and System.err, looking for the
+                // messages while they are written.
+                System.setOut(new PrintStream(
+                        new StreamMatcher.MatchingOutputStream(oldOut, matcher, matchListener), true));
+                System.setErr(new PrintStream(
+                        new StreamMatcher.MatchingOutputStream(oldErr, matcher, matchListener), true));
+            }
+            try {
+                Thread.currentThread().setContextClassLoader(classLoader);
+                Class<?> clazz = classLoader.loadClass(mainClass);
+                Method main = clazz.getMethod("main", String[].class);
+                latch.countDown();
+                main.invoke(null, (Object) args);
+            } catch (Throwable e) {
+                error.set(e);
+                latch.countDown();
+            } finally {
+                if (matcher.patterns() > 0) {
+                    System.setOut(oldOut);
+                    System.setErr(oldErr);
+                }
+            }
+        });
+        runner.setDaemon(true);
+        runner.start();
+
+        latch.await();
+        Throwable cause = error.get();
+        if (cause != null) {
+            throw cause;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (runner != null) {
+            runner.interrupt();
+        }
+    }
+}
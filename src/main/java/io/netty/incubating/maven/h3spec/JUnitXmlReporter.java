@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Writes a JUnit XML report with StAX, one {@code testcase} element per result as it arrives.
+ * <p>
+ * The attributes of the {@code testsuite} element are updated in place after each case: they are followed by enough
+ * spaces to fit any value, so the rest of the file never moves.
+ */
+final class JUnitXmlReporter implements H3SpecReporter {
+    private static final byte[] TAIL = "</testsuite>\n".getBytes(StandardCharsets.UTF_8);
+    // Room for the tests, errors, skipped, failures and time attributes.
+    private static final int ATTRIBUTES_LENGTH = 128;
+
+    private final ReportFile file;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final XMLStreamWriter writer;
+    private final String headerStart;
+    private final int headerLength;
+    private int tests;
+    private int failures;
+    private long totalNanos;
+
+    JUnitXmlReporter(File file, String suiteName) throws IOException {
+        try {
+            // Only used for the testcase elements, the start tag of testsuite is written by hand so its attributes
+            // can be rewritten.
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(buffer, "UTF-8");
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        headerStart = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"" + escape(suiteName) + '"';
+        headerLength = headerStart.getBytes(StandardCharsets.UTF_8).length + ATTRIBUTES_LENGTH;
+        this.file = new ReportFile(file, TAIL);
+        this.file.append(header());
+    }
+
+    @Override
+    public synchronized void onCaseResult(H3SpecCaseResult result) throws IOException {
+        try {
+            writer.writeCharacters("  ");
+            if (result.isFailure() || result.isFlaky()) {
+                writer.writeStartElement("testcase");
+            } else {
+                writer.writeEmptyElement("testcase");
+            }
+            writer.writeAttribute("classname", "H3Spec");
+            writer.writeAttribute("name", result.id());
+            writer.writeAttribute("time", formatSeconds(result.durationNanos()));
+            if (result.isFailure()) {
+                writer.writeEmptyElement("failure");
+                writer.writeAttribute("type", "behaviorMissmatch");
+                writer.writeEndElement();
+            } else if (result.isFlaky()) {
+                // Same as surefire reports a test that passed when it was rerun.
+                writer.writeEmptyElement("flakyFailure");
+                writer.writeAttribute("type", "behaviorMissmatch");
+                writer.writeAttribute("message", "Passed after " + result.retries() + " retries");
+                writer.writeEndElement();
+            }
+            writer.writeCharacters("\n");
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        tests++;
+        if (result.isFailure()) {
+            failures++;
+        }
+        totalNanos += result.durationNanos();
+        file.append(buffer.toByteArray());
+        buffer.reset();
+        file.overwrite(0, header());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] header() {
+        String attributes = String.format(Locale.ROOT,
+                " tests=\"%d\" errors=\"0\" skipped=\"0\" failures=\"%d\" time=\"%s\"",
+                tests, failures, formatSeconds(totalNanos));
+        byte[] header = new byte[headerLength + 2];
+        Arrays.fill(header, (byte) ' ');
+        byte[] start = (headerStart + attributes).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(start, 0, header, 0, start.length);
+        header[header.length - 2] = '>';
+        header[header.length - 1] = '\n';
+        return header;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    static String formatSeconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes one JSON object per case and line, for example:
+ * <pre>
+ * {"name":"MUST send ...","section":"[TLS 8.1]","status":"passed","start":1633024800000,"duration_ms":12.345}
+ * </pre>
+ */
+final class JsonLinesReporter implements H3SpecReporter {
+    private static final byte[] NO_TAIL = new byte[0];
+
+    private final ReportFile file;
+    private final StringBuilder line = new StringBuilder(256);
+
+    JsonLinesReporter(File file) throws IOException {
+        this.file = new ReportFile(file, NO_TAIL);
+    }
+
+    @Override
+    public synchronized void onCaseResult(H3SpecCaseResult result) throws IOException {
+        line.setLength(0);
+        line.append("{\"name\":");
+        appendString(line, result.name());
+        line.append(",\"section\":");
+        appendString(line, result.rfcSection());
+        line.append(",\"status\":\"").append(result.isFailure() ? "failed" : result.isFlaky() ? "flaky" : "passed")
+                .append("\",\"start\":").append(result.startMillis())
+                .append(",\"duration_ms\":").append(String.format(Locale.ROOT, "%.3f", result.durationNanos() / 1e6));
+        if (result.isFlaky()) {
+            line.append(",\"retries\":").append(result.retries());
+        }
+        line.append("}\n");
+        file.append(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
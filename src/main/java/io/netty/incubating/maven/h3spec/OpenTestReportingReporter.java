@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Writes an <a href="https://github.com/ota4j-team/open-test-reporting">Open Test Reporting</a> event report: a
+ * {@code started} and {@code finished} event for each case as it arrives, children of an event for the whole run.
+ * The run is only finished on {@link #close()}, a report of a run that was killed ends with the last case.
+ */
+final class OpenTestReportingReporter implements H3SpecReporter {
+    private static final String CORE_NS = "https://schemas.opentest4j.org/reporting/core/0.1.0";
+    private static final String EVENTS_NS = "https://schemas.opentest4j.org/reporting/events/0.1.0";
+    private static final byte[] TAIL = "</e:events>\n".getBytes(StandardCharsets.UTF_8);
+    private static final String ROOT_ID = "0";
+
+    private final ReportFile file;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final XMLStreamWriter writer;
+    private long nextId = 1;
+    private boolean failures;
+
+    OpenTestReportingReporter(File file, String suiteName) throws IOException {
+        this.file = new ReportFile(file, TAIL);
+        try {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(buffer, "UTF-8");
+            writer.writeCharacters("  ");
+            writer.writeEmptyElement("e", "started", EVENTS_NS);
+            writer.writeAttribute("id", ROOT_ID);
+            writer.writeAttribute("name", suiteName);
+            writer.writeAttribute("time", Instant.now().toString());
+            writer.writeCharacters("\n");
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        // The namespaces are declared on the root element, which is written by hand as it is never closed by the
+        // writer but by the tail of the file.
+        String root = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<e:events xmlns=\"" + CORE_NS +
+                "\" xmlns:e=\"" + EVENTS_NS + "\">\n";
+        this.file.append(root.getBytes(StandardCharsets.UTF_8));
+        flush();
+    }
+
+    @Override
+    public synchronized void onCaseResult(H3SpecCaseResult result) throws IOException {
+        String id = Long.toString(nextId++);
+        try {
+            writer.writeCharacters("  ");
+            writer.writeEmptyElement("e", "started", EVENTS_NS);
+            writer.writeAttribute("id", id);
+            writer.writeAttribute("parentId", ROOT_ID);
+            writer.writeAttribute("name", result.id());
+            writer.writeAttribute("time", Instant.ofEpochMilli(result.startMillis()).toString());
+            writer.writeCharacters("\n");
+            writeFinished(id, Instant.ofEpochMilli(result.endMillis()), result.isFailure(),
+                    result.isFlaky() ? "Flaky, passed after " + result.retries() + " retries" : null);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        failures |= result.isFailure();
+        flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeFinished(ROOT_ID, Instant.now(), failures, null);
+            flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeFinished(String id, Instant time, boolean failure, String reason) throws XMLStreamException {
+        writer.writeCharacters("  ");
+        writer.writeStartElement("e", "finished", EVENTS_NS);
+        writer.writeAttribute("id", id);
+        writer.writeAttribute("time", time.toString());
+        if (reason == null) {
+            writer.writeEmptyElement("result");
+            writer.writeAttribute("status", failure ? "FAILED" : "SUCCESSFUL");
+        } else {
+            writer.writeStartElement("result");
+            writer.writeAttribute("status", failure ? "FAILED" : "SUCCESSFUL");
+            writer.writeStartElement("reason");
+            writer.writeCharacters(reason);
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    private void flush() throws IOException {
+        try {
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        file.append(buffer.toByteArray());
+        buffer.reset();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records how long the phases of an execution take, like starting the server or running h3spec, on the thread that
+ * ran them. The phases are summed up per name for the log and written in the Chrome trace event format, which can be
+ * opened with {@code chrome://tracing} or <a href="https://ui.perfetto.dev">Perfetto</a>. Only the totals of phases
+ * which are {@linkplain #add(String, long) added} are kept, and at most {@value #MAX_EVENTS} phases are written to the
+ * trace, so the memory used stays bounded in long soak or load runs.
+ */
+final class PhaseTimer {
+    /**
+     * Timer which does not record anything.
+     */
+    static final PhaseTimer NOOP = new PhaseTimer(false);
+
+    static final int MAX_EVENTS = 10000;
+
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+    // All guarded by events.
+    private final List<Event> events = new ArrayList<>();
+    private final Map<String, long[]> totals = new LinkedHashMap<>();
+    private int droppedEvents;
+    private final Phase noopPhase = new Phase(null);
+
+    PhaseTimer() {
+        this(true);
+    }
+
+    private PhaseTimer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a phase on the current thread, which ends when the returned {@link Phase} is closed.
+     */
+    Phase start(String name) {
+        return enabled ? new Phase(name) : noopPhase;
+    }
+
+    /**
+     * Adds {@code durationNanos} to the total of a phase, without recording it in the trace. Used for work that is
+     * spread over many short calls, like parsing the output or writing the reports of every case.
+     */
+    void add(String name, long durationNanos) {
+        if (enabled) {
+            synchronized (events) {
+                total(name, durationNanos);
+            }
+        }
+    }
+
+    private void record(String name, long start, long end) {
+        Thread thread = Thread.currentThread();
+        synchronized (events) {
+            total(name, end - start);
+            if (events.size() < MAX_EVENTS) {
+                events.add(new Event(name, thread.getId(), thread.getName(), start - startNanos, end - start));
+            } else {
+                droppedEvents++;
+            }
+        }
+    }
+
+    private void total(String name, long durationNanos) {
+        long[] total = totals.computeIfAbsent(name, n -> new long[2]);
+        total[0] += durationNanos;
+        total[1]++;
+    }
+
+    /**
+     * Returns the total duration and the number of every phase, in the order they were first recorded, and how much
+     * of the time since this timer was created they make up. Phases overlap if they are nested or ran concurrently.
+     */
+    String summary() {
+        long wallNanos = System.nanoTime() - startNanos;
+        Map<String, long[]> totals;
+        int dropped;
+        synchronized (events) {
+            totals = new LinkedHashMap<>();
+            for (Map.Entry<String, long[]> total: this.totals.entrySet()) {
+                totals.put(total.getKey(), total.getValue().clone());
+            }
+            dropped = droppedEvents;
+        }
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "Phases (wall time %.1fms):\n",
+                wallNanos / 1e6));
+        if (dropped > 0) {
+            sb.append(String.format(Locale.ROOT, "\t(%d phases not written to the trace)\n", dropped));
+        }
+        for (Map.Entry<String, long[]> total: totals.entrySet()) {
+            long nanos = total.getValue()[0];
+            sb.append(String.format(Locale.ROOT, "\t%-30s %10.1fms %6.1f%% %5dx\n", total.getKey(), nanos / 1e6,
+                    wallNanos == 0 ? 0 : nanos * 100.0 / wallNanos, total.getValue()[1]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the first {@value #MAX_EVENTS} started phases in the Chrome trace event format, one track per thread.
+     */
+    void writeTrace(File file) throws IOException {
+        List<Event> events = events();
+        Map<Long, String> threads = new LinkedHashMap<>();
+        StringBuilder sb = new StringBuilder(events.size() * 96 + 32);
+        sb.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        for (Event event: events) {
+            threads.putIfAbsent(event.threadId, event.threadName);
+            sb.append("{\"name\":");
+            JsonLinesReporter.appendString(sb, event.name);
+            sb.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(event.threadId)
+                    .append(",\"ts\":").append(micros(event.startNanos))
+                    .append(",\"dur\":").append(micros(event.durationNanos))
+                    .append("},\n");
+        }
+        for (Map.Entry<Long, String> thread: threads.entrySet()) {
+            sb.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(thread.getKey())
+                    .append(",\"args\":{\"name\":");
+            JsonLinesReporter.appendString(sb, thread.getValue());
+            sb.append("}},\n");
+        }
+        sb.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,")
+                .append("\"args\":{\"name\":\"h3spec-maven-plugin\"}}\n]}\n");
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent.getAbsolutePath());
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<Event> events() {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e3);
+    }
+
+    /**
+     * A running phase, closing it records its duration.
+     */
+    final class Phase implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            if (name != null) {
+                record(name, start, System.nanoTime());
+            }
+        }
+    }
+
+    private static final class Event {
+        private final String name;
+        private final long threadId;
+        private final String threadName;
+        private final long startNanos;
+        private final long durationNanos;
+
+        Event(String name, long threadId, String threadName, long startNanos, long durationNanos) {
+            this.name = name;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out UDP ports for test servers. A port is only handed out if it can be bound for UDP, which is what a QUIC
+ * server needs, and if no other execution reserved it. Reservations are kept in a registry file which is shared by
+ * all executions on this machine, in the same JVM (-T) or in other processes, until the server has bound the port
+ * or the reservation expired.
+ */
+final class PortAllocator {
+    private static final long RESERVATION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int ATTEMPTS_PER_PORT = 32;
+
+    private final File registry;
+
+    PortAllocator(File registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the allocator which uses the registry in the temporary directory.
+     */
+    static PortAllocator shared() {
+        return new PortAllocator(new File(System.getProperty("java.io.tmpdir"), "netty-h3spec-ports"));
+    }
+
+    /**
+     * Reserve {@code count} distinct ports.
+     */
+    Reservation reserve(int count) throws IOException {
+        List<Integer> ports = new ArrayList<>(count);
+        update(reserved -> {
+            long expiry = System.currentTimeMillis() + RESERVATION_MILLIS;
+            for (int attempt = 0; ports.size() < count && attempt < count * ATTEMPTS_PER_PORT; attempt++) {
+                int port = freeUdpPort();
+                if (port > 0 && !reserved.containsKey(port) && !ports.contains(port)) {
+                    ports.add(port);
+                    reserved.put(port, expiry);
+                }
+            }
+        });
+        if (ports.size() < count) {
+            release(ports);
+            throw new IOException("Can't find " + count + " free UDP ports");
+        }
+        return new Reservation(ports);
+    }
+
+    private void release(List<Integer> ports) throws IOException {
+        if (!ports.isEmpty()) {
+            update(reserved -> reserved.keySet().removeAll(ports));
+        }
+    }
+
+    // Ask the OS for a port which is free for UDP on all interfaces.
+    private static int freeUdpPort() {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        } catch (SocketException e) {
+            return -1;
+        }
+    }
+
+    private interface Update {
+        void apply(Map<Integer, Long> reserved);
+    }
+
+    private void update(Update update) throws IOException {
+        // FileChannel.lock() is held per JVM, so serialize the threads of this JVM first.
+        synchronized (PortAllocator.class) {
+            try (RandomAccessFile file = new RandomAccessFile(registry, "rw");
+                 FileChannel channel = file.getChannel();
+                 FileLock ignore = channel.lock()) {
+                long now = System.currentTimeMillis();
+                Map<Integer, Long> reserved = new HashMap<>();
+                String line;
+                while ((line = file.readLine()) != null) {
+                    String[] values = line.trim().split(" ");
+                    if (values.length == 2) {
+                        try {
+                            long expiry = Long.parseLong(values[1]);
+                            if (expiry > now) {
+                                reserved.put(Integer.parseInt(values[0]), expiry);
+                            }
+                        } catch (NumberFormatException ignored) {
+                            // Skip broken entries.
+                        }
+                    }
+                }
+                update.apply(reserved);
+
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<Integer, Long> entry: reserved.entrySet()) {
+                    sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+                }
+                byte[] bytes = sb.toString().getBytes(StandardCharsets.US_ASCII);
+                file.seek(0);
+                file.write(bytes);
+                file.setLength(bytes.length);
+            }
+        }
+    }
+
+    /**
+     * Ports reserved for this execution. Release each port once the server has bound it, the remaining ones are
+     * released on {@link #close()}.
+     */
+    final class Reservation implements Closeable {
+        private final List<Integer> ports;
+        private final List<Integer> held;
+
+        private Reservation(List<Integer> ports) {
+            this.ports = Collections.unmodifiableList(new ArrayList<>(ports));
+            held = new ArrayList<>(ports);
+        }
+
+        List<Integer> ports() {
+            return ports;
+        }
+
+        void release(int port) throws IOException {
+            synchronized (held) {
+                if (!held.remove(Integer.valueOf(port))) {
+                    return;
+                }
+            }
+            PortAllocator.this.release(Collections.singletonList(port));
+        }
+
+        @Override
+        public void close() throws IOException {
+            List<Integer> remaining;
+            synchronized (held) {
+                remaining = new ArrayList<>(held);
+                held.clear();
+            }
+            PortAllocator.this.release(remaining);
+        }
+    }
+}
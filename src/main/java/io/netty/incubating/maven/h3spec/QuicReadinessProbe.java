@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks if a QUIC server accepts packets on a given address.
+ * <p>
+ * The probe sends a padded long header packet in the shape of an Initial packet but with a reserved version
+ * (see <a href="https://www.rfc-editor.org/rfc/rfc9000#section-15">RFC 9000, Section 15</a>). A server that is
+ * listening answers with a Version Negotiation packet without having to complete a handshake, which is all we need
+ * to know it is ready.
+ */
+final class QuicReadinessProbe {
+
+    // Datagrams carrying Initial packets must be at least 1200 bytes, otherwise servers may drop them.
+    private static final int PACKET_SIZE = 1200;
+    // Reserved version of the form 0x?a?a?a?a, which no server supports.
+    private static final int RESERVED_VERSION = 0x1a2a3a4a;
+    private static final long INITIAL_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 500;
+
+    private QuicReadinessProbe() { }
+
+    /**
+     * Probe the server with exponential backoff until it answers, {@code maxWaitMillis} have passed or
+     * {@code abort} was triggered, for example because the server exited.
+     *
+     * @return {@code true} if the server answered, {@code false} if it did not answer in time or the run was aborted.
+     */
+    static boolean await(String host, int port, long maxWaitMillis, H3Spec.Abort abort)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        byte[] probe = newProbePacket();
+        byte[] response = new byte[PACKET_SIZE];
+        long backoff = INITIAL_BACKOFF_MILLIS;
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            // Connect so ICMP port unreachable messages are reported instead of silently waiting for the timeout.
+            socket.connect(new InetSocketAddress(host, port));
+            for (;;) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0 || abort.isAborted()) {
+                    return false;
+                }
+                long wait = Math.max(1, Math.min(backoff, remaining));
+                long attemptStart = System.nanoTime();
+                try {
+                    socket.send(new DatagramPacket(probe, probe.length));
+                    socket.setSoTimeout((int) wait);
+                    socket.receive(new DatagramPacket(response, response.length));
+                    return true;
+                } catch (SocketTimeoutException ignore) {
+                    // No answer yet.
+                } catch (PortUnreachableException ignore) {
+                    // Nothing bound yet, wait before the next attempt.
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStart);
+                    if (elapsed < wait) {
+                        Thread.sleep(wait - elapsed);
+                    }
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff << 1);
+            }
+        }
+    }
+
+    private static byte[] newProbePacket() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] packet = new byte[PACKET_SIZE];
+        int idx = 0;
+        // Long header, fixed bit set, packet type Initial.
+        packet[idx++] = (byte) 0xc0;
+        packet[idx++] = (byte) (RESERVED_VERSION >>> 24);
+        packet[idx++] = (byte) (RESERVED_VERSION >>> 16);
+        packet[idx++] = (byte) (RESERVED_VERSION >>> 8);
+        packet[idx++] = (byte) RESERVED_VERSION;
+        // Destination and source connection ids of 8 bytes each.
+        for (int i = 0; i < 2; i++) {
+            packet[idx++] = 8;
+            for (int j = 0; j < 8; j++) {
+                packet[idx++] = (byte) random.nextInt();
+            }
+        }
+        // The rest is padding, it is never parsed as the version is unknown.
+        return packet;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Report file that is always complete: each {@link #append(byte[])} writes the new content followed by the tail
+ * (for example the closing tag of the root element), and the next append overwrites the tail again. Writes go
+ * straight to the file without buffering in the JVM, so they survive if the JVM is killed.
+ */
+final class ReportFile implements Closeable {
+    private final RandomAccessFile file;
+    private final byte[] tail;
+    private long position;
+
+    ReportFile(File file, byte[] tail) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.tail = tail;
+    }
+
+    void append(byte[] content) throws IOException {
+        file.seek(position);
+        file.write(content);
+        position += content.length;
+        file.write(tail);
+        file.setLength(position + tail.length);
+    }
+
+    /**
+     * Overwrite already appended content at the given offset, the length must not change.
+     */
+    void overwrite(long offset, byte[] content) throws IOException {
+        if (offset + content.length > position) {
+            throw new IllegalArgumentException("Can only overwrite content that was appended");
+        }
+        file.seek(offset);
+        file.write(content);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
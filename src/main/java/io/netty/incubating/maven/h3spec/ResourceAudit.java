@@ -0,0 +1,234 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compares the direct and mapped buffer usage and the open file descriptors of the JVM before an in-process server
+ * was started and after it was stopped, and lists the threads of the server which are still alive, to find what the
+ * server left behind.
+ * <p>
+ * Only threads started by the server are counted: threads whose context class loader is the class loader of the server
+ * (or one of its children), which is inherited from the thread that created them, or whose class was loaded by it.
+ * Threads of the JDK and the plugin, like the {@code process reaper} threads that stay idle for a while after h3spec
+ * exited, are not counted.
+ */
+final class ResourceAudit {
+    private static final File FD_DIRECTORY = new File("/proc/self/fd");
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final ClassLoader serverClassLoader;
+    private final Set<String> ignoredFiles;
+    private final Snapshot before;
+
+    /**
+     * Takes the snapshot to compare against, before the server is started.
+     *
+     * @param serverClassLoader the class loader the server is started with.
+     * @param ignoredFiles      files which are expected to be opened, like the jars of the class loader of the server.
+     */
+    ResourceAudit(ClassLoader serverClassLoader, Collection<String> ignoredFiles) {
+        this.serverClassLoader = serverClassLoader;
+        this.ignoredFiles = new HashSet<>();
+        for (String file: ignoredFiles) {
+            this.ignoredFiles.add(new File(file).getAbsolutePath());
+        }
+        before = Snapshot.take(serverClassLoader);
+    }
+
+    /**
+     * Compares the current state against the snapshot taken at construction. Threads and buffers are released
+     * asynchronously when a server shuts down, so the comparison is repeated until nothing is left behind anymore
+     * or {@code settleMillis} have passed.
+     */
+    Diff diff(long settleMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + settleMillis * 1000000;
+        for (;;) {
+            // Direct buffers which are not referenced anymore are only released after they were collected.
+            System.gc();
+            Diff diff = new Diff(before, Snapshot.take(serverClassLoader), ignoredFiles);
+            if (diff.isEmpty() || System.nanoTime() - deadline >= 0) {
+                return diff;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private static final class Snapshot {
+        private final long directUsed;
+        private final long mappedUsed;
+        private final Map<Long, String> threads;
+        // File descriptor to the file it points to, null if they can't be listed on this platform.
+        private final Map<String, String> fds;
+
+        private Snapshot(long directUsed, long mappedUsed, Map<Long, String> threads, Map<String, String> fds) {
+            this.directUsed = directUsed;
+            this.mappedUsed = mappedUsed;
+            this.threads = threads;
+            this.fds = fds;
+        }
+
+        static Snapshot take(ClassLoader serverClassLoader) {
+            long directUsed = 0;
+            long mappedUsed = 0;
+            for (BufferPoolMXBean pool: ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if ("direct".equals(pool.getName())) {
+                    directUsed = pool.getMemoryUsed();
+                } else if ("mapped".equals(pool.getName())) {
+                    mappedUsed = pool.getMemoryUsed();
+                }
+            }
+            Map<Long, String> threads = new HashMap<>();
+            for (Thread thread: Thread.getAllStackTraces().keySet()) {
+                if (thread.isAlive() && (isLoadedBy(thread.getContextClassLoader(), serverClassLoader) ||
+                        isLoadedBy(thread.getClass().getClassLoader(), serverClassLoader))) {
+                    threads.put(thread.getId(), thread.getName());
+                }
+            }
+            return new Snapshot(directUsed, mappedUsed, threads, fds());
+        }
+
+        // Returns true if the loader is the class loader of the server or one of its children.
+        private static boolean isLoadedBy(ClassLoader loader, ClassLoader serverClassLoader) {
+            for (ClassLoader l = loader; l != null; l = l.getParent()) {
+                if (l == serverClassLoader) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Map<String, String> fds() {
+            String[] names = FD_DIRECTORY.list();
+            if (names == null) {
+                return null;
+            }
+            Map<String, String> fds = new HashMap<>();
+            for (String name: names) {
+                Path link = new File(FD_DIRECTORY, name).toPath();
+                try {
+                    fds.put(name, Files.readSymbolicLink(link).toString());
+                } catch (IOException ignore) {
+                    // Closed in the meantime, or the descriptor used to list the directory.
+                }
+            }
+            return fds;
+        }
+    }
+
+    static final class Diff {
+        private final long directMemory;
+        private final long mappedMemory;
+        private final List<String> threads = new ArrayList<>();
+        // Number of leaked descriptors per file, null if they can't be listed on this platform.
+        private final Map<String, Integer> fds;
+
+        private Diff(Snapshot before, Snapshot after, Set<String> ignoredFiles) {
+            directMemory = after.directUsed - before.directUsed;
+            mappedMemory = after.mappedUsed - before.mappedUsed;
+            for (Map.Entry<Long, String> thread: after.threads.entrySet()) {
+                if (!before.threads.containsKey(thread.getKey())) {
+                    threads.add(thread.getValue());
+                }
+            }
+            threads.sort(null);
+            if (before.fds == null || after.fds == null) {
+                fds = null;
+            } else {
+                fds = new TreeMap<>();
+                for (Map.Entry<String, String> fd: after.fds.entrySet()) {
+                    String target = fd.getValue();
+                    if (!target.equals(before.fds.get(fd.getKey())) && !ignoredFiles.contains(target)) {
+                        fds.merge(target, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return directMemory <= 0 && mappedMemory <= 0 && threads.isEmpty() && fileDescriptors() <= 0;
+        }
+
+        /**
+         * Bytes of direct memory which were not released.
+         */
+        long directMemory() {
+            return directMemory;
+        }
+
+        int threads() {
+            return threads.size();
+        }
+
+        /**
+         * Number of file descriptors which were not closed, {@code -1} if they can't be listed on this platform.
+         */
+        int fileDescriptors() {
+            if (fds == null) {
+                return -1;
+            }
+            int count = 0;
+            for (int c: fds.values()) {
+                count += c;
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Resources left behind by the test server: ")
+                    .append(directMemory).append(" bytes direct memory, ")
+                    .append(mappedMemory).append(" bytes mapped memory, ")
+                    .append(threads.size()).append(" threads, ");
+            if (fds == null) {
+                sb.append("file descriptors not supported on this platform\n");
+            } else {
+                sb.append(fileDescriptors()).append(" file descriptors\n");
+            }
+            if (!threads.isEmpty()) {
+                sb.append("Threads:\n");
+                for (String thread: threads) {
+                    sb.append("\t").append(thread).append("\n");
+                }
+            }
+            if (fds != null && !fds.isEmpty()) {
+                sb.append("File descriptors:\n");
+                for (Map.Entry<String, Integer> fd: fds.entrySet()) {
+                    sb.append("\t").append(fd.getKey());
+                    if (fd.getValue() > 1) {
+                        sb.append(" (").append(fd.getValue()).append("x)");
+                    }
+                    sb.append("\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Links the samples written by {@link ResourceSampler} to the cases that were running at that time.
+ */
+final class ResourceReport {
+    private static final int TIMESTAMP = 0;
+    private static final int CPU = 1;
+    private static final int HEAP = 2;
+    private static final int GC_COUNT = 3;
+    private static final int GC_TIME = 4;
+    private static final int DIRECT = 5;
+    private static final int THREADS = 8;
+
+    private final List<long[]> samples;
+
+    private ResourceReport(List<long[]> samples) {
+        this.samples = samples;
+    }
+
+    static ResourceReport read(File samplesFile) throws IOException {
+        List<long[]> samples = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(samplesFile.toPath(), StandardCharsets.UTF_8)) {
+            // Skip the header.
+            String line = in.readLine();
+            while ((line = in.readLine()) != null) {
+                String[] values = line.split(",");
+                long[] sample = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    sample[i] = Long.parseLong(values[i]);
+                }
+                samples.add(sample);
+            }
+        }
+        return new ResourceReport(samples);
+    }
+
+    /**
+     * Writes all samples with an additional column that lists the cases which were running at that time.
+     */
+    void writeTimeSeries(List<H3SpecCaseResult> cases, File file) throws IOException {
+        List<H3SpecCaseResult> sorted = new ArrayList<>(cases);
+        sorted.sort((a, b) -> Long.compare(a.startMillis(), b.startMillis()));
+        List<H3SpecCaseResult> active = new ArrayList<>();
+        int next = 0;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.print(ResourceSampler.HEADER);
+            out.print(",cases\n");
+            StringBuilder sb = new StringBuilder();
+            for (long[] sample: samples) {
+                long timestamp = sample[TIMESTAMP];
+                while (next < sorted.size() && sorted.get(next).startMillis() <= timestamp) {
+                    active.add(sorted.get(next++));
+                }
+                sb.setLength(0);
+                for (Iterator<H3SpecCaseResult> it = active.iterator(); it.hasNext();) {
+                    H3SpecCaseResult r = it.next();
+                    if (r.endMillis() < timestamp) {
+                        it.remove();
+                    } else {
+                        sb.append(sb.length() == 0 ? "" : " | ").append(r.id());
+                    }
+                }
+                for (long value: sample) {
+                    out.print(value);
+                    out.print(',');
+                }
+                out.print('"');
+                out.print(sb.toString().replace("\"", "\"\""));
+                out.print("\"\n");
+            }
+        }
+    }
+
+    /**
+     * Writes one line per case with the CPU time and GC activity between the samples around it and the maximum
+     * heap, direct memory and thread count seen while it ran.
+     */
+    void writeByCase(List<H3SpecCaseResult> cases, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.print("case,start_ms,duration_ms,process_cpu_ms,gc_count,gc_time_ms,max_heap_used," +
+                    "max_direct_used,max_threads\n");
+            for (H3SpecCaseResult r: cases) {
+                int first = sampleAtOrBefore(r.startMillis());
+                int last = sampleAtOrAfter(r.endMillis());
+                if (first < 0 || last < 0) {
+                    continue;
+                }
+                long maxHeap = 0;
+                long maxDirect = 0;
+                long maxThreads = 0;
+                for (int i = first; i <= last; i++) {
+                    long[] sample = samples.get(i);
+                    maxHeap = Math.max(maxHeap, sample[HEAP]);
+                    maxDirect = Math.max(maxDirect, sample[DIRECT]);
+                    maxThreads = Math.max(maxThreads, sample[THREADS]);
+                }
+                long[] before = samples.get(first);
+                long[] after = samples.get(last);
+                out.print(String.format(Locale.ROOT, "\"%s\",%d,%.3f,%d,%d,%d,%d,%d,%d\n",
+                        r.id().replace("\"", "\"\""), r.startMillis(), r.durationNanos() / 1e6,
+                        after[CPU] - before[CPU], after[GC_COUNT] - before[GC_COUNT],
+                        after[GC_TIME] - before[GC_TIME], maxHeap, maxDirect, maxThreads));
+            }
+        }
+    }
+
+    private int sampleAtOrBefore(long timestamp) {
+        int idx = firstAfter(timestamp) - 1;
+        return idx < 0 && !samples.isEmpty() ? 0 : idx;
+    }
+
+    private int sampleAtOrAfter(long timestamp) {
+        int idx = firstAfter(timestamp - 1);
+        return Math.min(idx, samples.size() - 1);
+    }
+
+    // Index of the first sample taken after the timestamp, samples are in chronological order.
+    private int firstAfter(long timestamp) {
+        int low = 0;
+        int high = samples.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (samples.get(mid)[TIMESTAMP] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Periodically samples the resource usage of the JVM it runs in through the platform MXBeans and appends each
+ * sample as a CSV line to a file. It is used in the Maven JVM for in-process servers and by
+ * {@link ForkedServerMain} for forked ones.
+ */
+final class ResourceSampler {
+
+    static final String HEADER = "timestamp_ms,process_cpu_ms,heap_used,gc_count,gc_time_ms," +
+            "direct_used,direct_count,mapped_used,threads";
+
+    private final File file;
+    private final long intervalMillis;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    ResourceSampler(File file, long intervalMillis) {
+        this.file = file;
+        this.intervalMillis = Math.max(1, intervalMillis);
+    }
+
+    synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        running = true;
+        thread = new Thread(this::run, "h3spec-resource-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop sampling and wait until all samples were written.
+     */
+    synchronized void stop() throws IOException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void run() {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8))) {
+            out.write(HEADER);
+            out.write('\n');
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+            List<BufferPoolMXBean> pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+            StringBuilder sb = new StringBuilder(128);
+            do {
+                sample(sb, os, gcs, pools);
+                out.append(sb).append('\n');
+                sb.setLength(0);
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException ignore) {
+                    // Stopped, take a last sample.
+                }
+            } while (running);
+            sample(sb, os, gcs, pools);
+            out.append(sb).append('\n');
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private static void sample(StringBuilder sb, OperatingSystemMXBean os, List<GarbageCollectorMXBean> gcs,
+                               List<BufferPoolMXBean> pools) {
+        long cpuMillis = -1;
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            cpuMillis = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() / 1000000;
+        }
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc: gcs) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        long directUsed = 0;
+        long directCount = 0;
+        long mappedUsed = 0;
+        for (BufferPoolMXBean pool: pools) {
+            if ("direct".equals(pool.getName())) {
+                directUsed = pool.getMemoryUsed();
+                directCount = pool.getCount();
+            } else if ("mapped".equals(pool.getName())) {
+                mappedUsed = pool.getMemoryUsed();
+            }
+        }
+        sb.append(System.currentTimeMillis()).append(',')
+                .append(cpuMillis).append(',')
+                .append(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed()).append(',')
+                .append(gcCount).append(',')
+                .append(gcTime).append(',')
+                .append(directUsed).append(',')
+                .append(directCount).append(',')
+                .append(mappedUsed).append(',')
+                .append(ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the output of a test server for the ready message, messages that abort the run and messages that report
+ * a resource leak.
+ */
+final class ServerMonitor implements StreamMatcher.Listener {
+    private static final List<String> DEFAULT_LEAK_MESSAGES = Collections.singletonList("LEAK: ");
+
+    // All messages we look for in the output of the server, in this order: ready, abort, leak.
+    private final List<String> patterns = new ArrayList<>();
+    private final boolean hasReadyMessage;
+    private final int firstLeakPattern;
+    private final CountDownLatch ready;
+    private final AtomicInteger leaks = new AtomicInteger();
+    private final StreamMatcher matcher;
+    private volatile H3Spec.Abort abort;
+
+    /**
+     * @param readyMessage  the message the server prints once it is ready, or {@code null}.
+     * @param abortMessages messages which abort the run, or {@code null}.
+     * @param leakMessages  messages which report a leak, or {@code null} to use {@code LEAK: }.
+     * @param abort         aborted once one of the {@code abortMessages} was printed.
+     */
+    ServerMonitor(String readyMessage, List<String> abortMessages, List<String> leakMessages, H3Spec.Abort abort) {
+        hasReadyMessage = readyMessage != null && !readyMessage.isEmpty();
+        if (hasReadyMessage) {
+            patterns.add(readyMessage);
+        }
+        if (abortMessages != null) {
+            patterns.addAll(abortMessages);
+        }
+        firstLeakPattern = patterns.size();
+        patterns.addAll(leakMessages == null ? DEFAULT_LEAK_MESSAGES : leakMessages);
+        ready = new CountDownLatch(hasReadyMessage ? 1 : 0);
+        this.abort = abort;
+        matcher = new StreamMatcher(patterns);
+    }
+
+    StreamMatcher matcher() {
+        return matcher;
+    }
+
+    H3Spec.Abort abort() {
+        return abort;
+    }
+
+    /**
+     * Abort {@code abort} instead from now on, used when a server is reused by another execution.
+     */
+    void attach(H3Spec.Abort abort) {
+        this.abort = abort;
+    }
+
+    /**
+     * Wait until the server printed the ready message, returns at once if there is none or the run was aborted.
+     */
+    void awaitReady() throws InterruptedException {
+        ready.await();
+    }
+
+    /**
+     * Aborts the run, for example because the server exited, and stops waiting for the ready message.
+     */
+    void abort(String reason) {
+        abort.abort(reason);
+        ready.countDown();
+    }
+
+    /**
+     * Returns how often the server printed one of the leak messages.
+     */
+    int leaks() {
+        return leaks.get();
+    }
+
+    @Override
+    public void onMatch(int idx) {
+        if (idx >= firstLeakPattern) {
+            leaks.incrementAndGet();
+        } else if (idx == 0 && hasReadyMessage) {
+            ready.countDown();
+        } else {
+            // Don't wait for a ready message that will never come.
+            abort("Test server printed '" + patterns.get(idx) + "'");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test servers which are kept running after an execution, so later executions in the same Maven session can reuse
+ * them. The plugin classes, and so this registry, are shared by all executions of the plugin in a session. A server
+ * is only handed to one execution at a time, and all of them are closed when the JVM exits.
+ */
+final class ServerRegistry {
+    private static final Map<String, Entry> IDLE = new HashMap<>();
+    private static boolean shutdownHookAdded;
+
+    private ServerRegistry() { }
+
+    /**
+     * Take the idle server registered for {@code key}, if any. It must be {@link #release(String, Entry) released}
+     * or closed once the execution is done.
+     */
+    static synchronized Entry acquire(String key) {
+        return IDLE.remove(key);
+    }
+
+    /**
+     * Register an idle server for {@code key}. If another execution registered one for the same key in the meantime
+     * that one is closed.
+     */
+    static synchronized void release(String key, Entry entry) {
+        if (!shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(ServerRegistry::closeAll, "h3spec-server-registry"));
+            shutdownHookAdded = true;
+        }
+        Entry old = IDLE.put(key, entry);
+        if (old != null && old.server != entry.server) {
+            old.server.close();
+        }
+    }
+
+    private static void closeAll() {
+        List<Entry> entries;
+        synchronized (ServerRegistry.class) {
+            entries = new ArrayList<>(IDLE.values());
+            IDLE.clear();
+        }
+        for (Entry entry: entries) {
+            entry.server.close();
+        }
+    }
+
+    static final class Entry {
+        private final TestServer server;
+        private final int port;
+        private final ServerMonitor monitor;
+
+        Entry(TestServer server, int port, ServerMonitor monitor) {
+            this.server = server;
+            this.port = port;
+            this.monitor = monitor;
+        }
+
+        TestServer server() {
+            return server;
+        }
+
+        int port() {
+            return port;
+        }
+
+        ServerMonitor monitor() {
+            return monitor;
+        }
+    }
+}
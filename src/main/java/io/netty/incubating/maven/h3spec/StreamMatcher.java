@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton which finds several byte patterns at once in a stream of bytes. The automaton is
+ * immutable and can be shared; the position within the stream is kept by each {@link MatchingOutputStream}, so
+ * patterns are also found if they are split over several writes. Matching does not allocate.
+ */
+final class StreamMatcher {
+
+    /**
+     * Notified each time one of the patterns was found.
+     */
+    interface Listener {
+        void onMatch(int pattern);
+    }
+
+    private static final int ALPHABET = 256;
+
+    // transitions[state * ALPHABET + byte] is the next state.
+    private final int[] transitions;
+    // Bit i is set if pattern i ends in this state.
+    private final long[] matches;
+    private final int patterns;
+
+    /**
+     * Creates a new matcher for up to 64 patterns, encoded with the platform charset as that is what
+     * {@link System#out} uses.
+     */
+    StreamMatcher(List<String> patterns) {
+        if (patterns.size() > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " patterns are supported");
+        }
+        this.patterns = patterns.size();
+        Charset charset = Charset.defaultCharset();
+
+        // Build the trie, -1 means there is no edge yet.
+        List<int[]> edges = new ArrayList<>();
+        List<Long> outputs = new ArrayList<>();
+        edges.add(newState());
+        outputs.add(0L);
+        for (int i = 0; i < patterns.size(); i++) {
+            byte[] pattern = patterns.get(i).getBytes(charset);
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Patterns must not be empty");
+            }
+            int state = 0;
+            for (byte b: pattern) {
+                int next = edges.get(state)[b & 0xff];
+                if (next == -1) {
+                    next = edges.size();
+                    edges.get(state)[b & 0xff] = next;
+                    edges.add(newState());
+                    outputs.add(0L);
+                }
+                state = next;
+            }
+            outputs.set(state, outputs.get(state) | (1L << i));
+        }
+
+        // Turn the trie into a DFA by following the failure links breadth first.
+        int states = edges.size();
+        transitions = new int[states * ALPHABET];
+        matches = new long[states];
+        int[] fail = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = edges.get(0)[c];
+            if (next == -1) {
+                transitions[c] = 0;
+            } else {
+                transitions[c] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        matches[0] = outputs.get(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            matches[state] = outputs.get(state) | matches[fail[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = edges.get(state)[c];
+                if (next == -1) {
+                    transitions[state * ALPHABET + c] = transitions[fail[state] * ALPHABET + c];
+                } else {
+                    transitions[state * ALPHABET + c] = next;
+                    fail[next] = transitions[fail[state] * ALPHABET + c];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    /**
+     * Feed {@code len} bytes starting at {@code off} into the matcher, starting in {@code state}.
+     *
+     * @return the state after the last byte, to be passed into the next call.
+     */
+    int match(int state, byte[] b, int off, int len, Listener listener) {
+        int[] transitions = this.transitions;
+        long[] matches = this.matches;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            state = transitions[state * ALPHABET + (b[i] & 0xff)];
+            long found = matches[state];
+            if (found != 0) {
+                notify(found, listener);
+            }
+        }
+        return state;
+    }
+
+    int match(int state, int b, Listener listener) {
+        state = transitions[state * ALPHABET + (b & 0xff)];
+        long found = matches[state];
+        if (found != 0) {
+            notify(found, listener);
+        }
+        return state;
+    }
+
+    int patterns() {
+        return patterns;
+    }
+
+    private static void notify(long found, Listener listener) {
+        while (found != 0) {
+            int pattern = Long.numberOfTrailingZeros(found);
+            listener.onMatch(pattern);
+            found &= found - 1;
+        }
+    }
+
+    /**
+     * {@link FilterOutputStream} which passes everything through and reports the patterns of a
+     * {@link StreamMatcher} that were found in the written bytes.
+     */
+    static final class MatchingOutputStream extends FilterOutputStream {
+        private final StreamMatcher matcher;
+        private final Listener listener;
+        private int state;
+
+        MatchingOutputStream(OutputStream out, StreamMatcher matcher, Listener listener) {
+            super(out);
+            this.matcher = matcher;
+            this.listener = listener;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            state = matcher.match(state, b, listener);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            state = matcher.match(state, b, off, len, listener);
+            out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A variant of the test server for a matrix run, configured as {@code <variant>} in {@code <variants>}:
+ * <pre>
+ * &lt;variant&gt;
+ *   &lt;name&gt;epoll&lt;/name&gt;
+ *   &lt;args&gt;&lt;arg&gt;--transport=epoll&lt;/arg&gt;&lt;/args&gt;
+ *   &lt;jvmArgs&gt;&lt;jvmArg&gt;-Dio.netty.allocator.type=unpooled&lt;/jvmArg&gt;&lt;/jvmArgs&gt;
+ * &lt;/variant&gt;
+ * </pre>
+ */
+public final class Variant {
+    private String name;
+    private String mainClass;
+    private List<String> args;
+    private List<String> jvmArgs;
+
+    public Variant() { }
+
+    /**
+     * The name used in the reports and in the names of the files of this variant, required. Only letters, digits,
+     * {@code .}, {@code _} and {@code -} are allowed.
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * The main class of this variant, or {@code null} to use the main class of the plugin.
+     */
+    String mainClass() {
+        return mainClass;
+    }
+
+    /**
+     * Arguments passed to the main class after the port.
+     */
+    List<String> args() {
+        return args == null ? Collections.emptyList() : args;
+    }
+
+    /**
+     * Options for the JVM of this variant, in addition to the ones of the plugin.
+     */
+    List<String> jvmArgs() {
+        return jvmArgs == null ? Collections.emptyList() : jvmArgs;
+    }
+}
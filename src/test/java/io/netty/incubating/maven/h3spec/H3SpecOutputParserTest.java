@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class H3SpecOutputParserTest {
+
+    private static final String OUTPUT = "h3spec\n" +
+            "  MUST send a SETTINGS frame as the first frame [RFC 9114 6.2.1]\n" +
+            "  MUST treat a [reserved] frame type as unknown [RFC 9114 7.2.8]\n" +
+            "  MUST close the connection on an invalid stream [RFC 9114 8.1] FAILED [1]\n" +
+            "\n" +
+            "Failures:\n" +
+            "\n" +
+            "  1) MUST close the connection on an invalid stream\n" +
+            "       expected: H3_STREAM_CREATION_ERROR\n";
+
+    private static byte[] bytes(String output) {
+        return output.getBytes(Charset.defaultCharset());
+    }
+
+    private static void assertResults(List<H3SpecCaseResult> results) {
+        assertEquals(3, results.size());
+        assertEquals("MUST send a SETTINGS frame as the first frame", results.get(0).name());
+        assertEquals("[RFC 9114 6.2.1]", results.get(0).rfcSection());
+        assertFalse(results.get(0).isFailure());
+        assertEquals("MUST treat a [reserved] frame type as unknown", results.get(1).name());
+        assertEquals("[RFC 9114 7.2.8]", results.get(1).rfcSection());
+        assertFalse(results.get(1).isFailure());
+        assertEquals("MUST close the connection on an invalid stream [RFC 9114 8.1]", results.get(2).id());
+        assertTrue(results.get(2).isFailure());
+    }
+
+    @Test
+    public void testParse() {
+        List<H3SpecCaseResult> notified = new ArrayList<>();
+        H3SpecOutputParser parser = new H3SpecOutputParser(notified::add);
+        byte[] output = bytes(OUTPUT);
+        parser.write(output, 0, output.length);
+        parser.close();
+
+        assertResults(parser.results());
+        assertEquals(parser.results(), notified);
+        assertEquals("Failures:\n\n  1) MUST close the connection on an invalid stream\n" +
+                "       expected: H3_STREAM_CREATION_ERROR\n", parser.failureDetails().toString());
+    }
+
+    @Test
+    public void testCrLf() {
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        byte[] output = bytes(OUTPUT.replace("\n", "\r\n"));
+        parser.write(output, 0, output.length);
+        parser.close();
+
+        assertResults(parser.results());
+        assertFalse(parser.failureDetails().toString().contains("\r"));
+    }
+
+    @Test
+    public void testLinesSplitAcrossWrites() {
+        byte[] output = bytes(OUTPUT);
+        for (int split = 0; split <= output.length; split++) {
+            H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+            parser.write(output, 0, split);
+            parser.write(output, split, output.length - split);
+            parser.close();
+            assertResults(parser.results());
+        }
+
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        for (byte b: output) {
+            parser.write(b);
+        }
+        parser.close();
+        assertResults(parser.results());
+    }
+
+    @Test
+    public void testUnterminatedLastLine() {
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        byte[] output = bytes("  MUST send a SETTINGS frame as the first frame [RFC 9114 6.2.1]");
+        parser.write(output, 0, output.length);
+        assertTrue(parser.results().isEmpty());
+        parser.close();
+        assertEquals(1, parser.results().size());
+    }
+
+    @Test
+    public void testLongLinesAreTruncated() {
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        byte[] longLine = new byte[H3SpecOutputParser.MAX_LINE_LENGTH * 2 + 1];
+        Arrays.fill(longLine, (byte) 'x');
+        longLine[longLine.length - 1] = '\n';
+        byte[] output = bytes("Failures:\n");
+        parser.write(output, 0, output.length);
+        parser.write(longLine, 0, longLine.length);
+        parser.close();
+
+        assertTrue(parser.results().isEmpty());
+        assertEquals("Failures:\n".length() + H3SpecOutputParser.MAX_LINE_LENGTH + 1,
+                parser.failureDetails().length());
+    }
+
+    @Test
+    public void testFailureDetailsAreCapped() {
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        byte[] output = bytes("Failures:\n");
+        parser.write(output, 0, output.length);
+        byte[] line = bytes("       expected: H3_STREAM_CREATION_ERROR\n");
+        for (int i = 0; i < H3SpecOutputParser.MAX_FAILURE_DETAILS / line.length + 10; i++) {
+            parser.write(line, 0, line.length);
+        }
+        parser.close();
+
+        assertTrue(parser.failureDetails().length() <= H3SpecOutputParser.MAX_FAILURE_DETAILS + 16);
+        assertTrue(parser.failureDetails().toString().endsWith("... (truncated)\n"));
+    }
+
+    @Test
+    public void testCaseTiming() throws InterruptedException {
+        long before = System.currentTimeMillis();
+        H3SpecOutputParser parser = new H3SpecOutputParser(H3SpecOutputParser.Listener.NOOP);
+        Thread.sleep(20);
+        byte[] first = bytes("  MUST send a SETTINGS frame as the first frame [RFC 9114 6.2.1]\n");
+        parser.write(first, 0, first.length);
+        Thread.sleep(50);
+        byte[] second = bytes("  MUST treat a [reserved] frame type as unknown [RFC 9114 7.2.8]\n");
+        parser.write(second, 0, second.length);
+        parser.close();
+        long after = System.currentTimeMillis();
+
+        H3SpecCaseResult firstResult = parser.results().get(0);
+        H3SpecCaseResult secondResult = parser.results().get(1);
+        // A case starts when the previous one ended, or when the parser was created.
+        assertTrue(firstResult.startMillis() >= before - 1);
+        assertTrue(firstResult.durationMillis() >= 20);
+        assertTrue(secondResult.durationMillis() >= 50);
+        assertTrue(Math.abs(secondResult.startMillis() - firstResult.endMillis()) <= 1);
+        assertTrue(secondResult.endMillis() <= after + 1);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class H3SpecShardsTest {
+
+    @Test
+    public void testLongestFirstIntoSmallestShard() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        durations.put("f", 5L);
+        durations.put("e", 6L);
+        durations.put("d", 7L);
+        durations.put("c", 8L);
+        durations.put("b", 9L);
+        durations.put("a", 10L);
+
+        List<List<String>> plan = H3SpecShards.plan(durations, 2);
+        assertEquals(Arrays.asList(Arrays.asList("a", "d", "e"), Arrays.asList("b", "c", "f")), plan);
+    }
+
+    @Test
+    public void testEveryCaseInExactlyOneShard() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            durations.put("case " + i, (long) (i * 37 % 101));
+        }
+
+        List<List<String>> plan = H3SpecShards.plan(durations, 7);
+        assertEquals(7, plan.size());
+        List<String> all = new ArrayList<>();
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (List<String> shard: plan) {
+            all.addAll(shard);
+            long total = 0;
+            for (String id: shard) {
+                total += durations.get(id);
+            }
+            min = Math.min(min, total);
+            max = Math.max(max, total);
+        }
+        Collections.sort(all);
+        List<String> expected = new ArrayList<>(durations.keySet());
+        Collections.sort(expected);
+        assertEquals(expected, all);
+        // LPT never leaves a shard more than the longest case behind.
+        assertTrue(max - min <= 100, "unbalanced shards: " + min + " - " + max);
+    }
+
+    @Test
+    public void testEmptyShardsAreDropped() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        durations.put("a", 1L);
+        durations.put("b", 2L);
+
+        assertEquals(Arrays.asList(Collections.singletonList("b"), Collections.singletonList("a")),
+                H3SpecShards.plan(durations, 4));
+        assertEquals(Collections.emptyList(), H3SpecShards.plan(Collections.emptyMap(), 4));
+    }
+
+    @Test
+    public void testEqualDurationsAreOrderedById() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        durations.put("c", 1L);
+        durations.put("a", 1L);
+        durations.put("b", 1L);
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), H3SpecShards.plan(durations, 1));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class H3SpecTimeoutsTest {
+
+    private static H3SpecDurations durations(Object... idsAndMillis) {
+        H3SpecDurations durations = new H3SpecDurations();
+        for (int i = 0; i < idsAndMillis.length; i += 2) {
+            durations.record((String) idsAndMillis[i], (Integer) idsAndMillis[i + 1]);
+        }
+        return durations;
+    }
+
+    @Test
+    public void testRoundedUpToMinTimeoutTimesPowerOfTwo() {
+        H3SpecDurations durations = durations("a", 100, "b", 500, "c", 1000, "d", 2000, "e", 300);
+
+        Map<Long, List<String>> groups = H3SpecTimeouts.plan(durations, 3, 1000, -1);
+        assertEquals(Arrays.asList(1000L, 2000L, 4000L, 8000L), Arrays.asList(groups.keySet().toArray()));
+        assertEquals(Arrays.asList("a", "e"), groups.get(1000L));
+        assertEquals(Collections.singletonList("b"), groups.get(2000L));
+        assertEquals(Collections.singletonList("c"), groups.get(4000L));
+        assertEquals(Collections.singletonList("d"), groups.get(8000L));
+    }
+
+    @Test
+    public void testExactBoundaryIsNotDoubled() {
+        Map<Long, List<String>> groups = H3SpecTimeouts.plan(durations("a", 1000), 2, 1000, -1);
+        assertEquals(Collections.singletonList("a"), groups.get(2000L));
+    }
+
+    @Test
+    public void testCappedAtMaxTimeout() {
+        H3SpecDurations durations = durations("a", 100, "b", 2000, "c", 100000);
+
+        Map<Long, List<String>> groups = H3SpecTimeouts.plan(durations, 3, 1000, 5000);
+        assertEquals(Collections.singletonList("a"), groups.get(1000L));
+        assertEquals(Arrays.asList("b", "c"), groups.get(5000L));
+        assertEquals(2, groups.size());
+    }
+
+    @Test
+    public void testUsesP99OfTheHistory() {
+        H3SpecDurations durations = new H3SpecDurations();
+        for (int i = 0; i < H3SpecDurations.HISTORY - 1; i++) {
+            durations.record("a", 10);
+        }
+        // A single slow run out of 20 is the p99, so the timeout covers it.
+        durations.record("a", 3000);
+
+        Map<Long, List<String>> groups = H3SpecTimeouts.plan(durations, 1, 1000, -1);
+        assertEquals(Collections.singletonList("a"), groups.get(4000L));
+    }
+
+    @Test
+    public void testNonPositiveMinTimeout() {
+        Map<Long, List<String>> groups = H3SpecTimeouts.plan(durations("a", 5), 1, 0, -1);
+        assertEquals(Collections.singletonList("a"), groups.get(8L));
+    }
+}
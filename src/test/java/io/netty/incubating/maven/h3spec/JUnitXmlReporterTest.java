@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JUnitXmlReporterTest {
+
+    @TempDir
+    File tmp;
+
+    private static Element parse(File file) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        return document.getDocumentElement();
+    }
+
+    private static H3SpecCaseResult result(String name, boolean failure, long millis) {
+        return new H3SpecCaseResult(name, "[RFC 9114 4.1]", failure, 0, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void testWellFormedWhileRunning() throws Exception {
+        File file = new File(tmp, "TEST-h3spec.xml");
+        try (JUnitXmlReporter reporter = new JUnitXmlReporter(file, "io.netty.H3Spec")) {
+            Element suite = parse(file);
+            assertEquals("testsuite", suite.getTagName());
+            assertEquals("io.netty.H3Spec", suite.getAttribute("name"));
+            assertEquals("0", suite.getAttribute("tests"));
+
+            reporter.onCaseResult(result("MUST send SETTINGS", false, 1500));
+            reporter.onCaseResult(result("MUST reject <frames> & \"headers\"", true, 250));
+
+            // Nothing was closed, but the report can be read as it is.
+            suite = parse(file);
+            assertEquals("2", suite.getAttribute("tests"));
+            assertEquals("1", suite.getAttribute("failures"));
+            assertEquals("1.750", suite.getAttribute("time"));
+            NodeList cases = suite.getElementsByTagName("testcase");
+            assertEquals(2, cases.getLength());
+            Element first = (Element) cases.item(0);
+            assertEquals("MUST send SETTINGS [RFC 9114 4.1]", first.getAttribute("name"));
+            assertEquals("1.500", first.getAttribute("time"));
+            assertEquals(0, first.getElementsByTagName("failure").getLength());
+            Element second = (Element) cases.item(1);
+            assertEquals("MUST reject <frames> & \"headers\" [RFC 9114 4.1]", second.getAttribute("name"));
+            assertEquals(1, second.getElementsByTagName("failure").getLength());
+        }
+        assertEquals("2", parse(file).getAttribute("tests"));
+    }
+
+    @Test
+    public void testManyCasesKeepTheHeaderInPlace() throws Exception {
+        File file = new File(tmp, "TEST-h3spec.xml");
+        try (JUnitXmlReporter reporter = new JUnitXmlReporter(file, "suite \"<&>\"")) {
+            for (int i = 0; i < 1000; i++) {
+                reporter.onCaseResult(result("MUST case " + i, i % 3 == 0, TimeUnit.HOURS.toMillis(1)));
+            }
+            Element suite = parse(file);
+            assertEquals("suite \"<&>\"", suite.getAttribute("name"));
+            assertEquals("1000", suite.getAttribute("tests"));
+            assertEquals("334", suite.getAttribute("failures"));
+            assertEquals("3600000.000", suite.getAttribute("time"));
+            assertEquals(1000, suite.getElementsByTagName("testcase").getLength());
+        }
+    }
+
+    @Test
+    public void testFlakyCase() throws Exception {
+        File file = new File(tmp, "TEST-h3spec.xml");
+        try (JUnitXmlReporter reporter = new JUnitXmlReporter(file, "H3Spec")) {
+            reporter.onCaseResult(result("MUST send SETTINGS", false, 10).asFlaky(2));
+        }
+        Element suite = parse(file);
+        assertEquals("0", suite.getAttribute("failures"));
+        Element flaky = (Element) suite.getElementsByTagName("flakyFailure").item(0);
+        assertEquals("Passed after 2 retries", flaky.getAttribute("message"));
+    }
+}
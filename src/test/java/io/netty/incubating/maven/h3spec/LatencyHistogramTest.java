@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(16, histogram.count());
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(7, histogram.percentile(50));
+        assertEquals(15, histogram.percentile(100));
+    }
+
+    @Test
+    public void testPercentileAccuracy() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int count = 100000;
+        for (int i = 1; i <= count; i++) {
+            histogram.record(i);
+        }
+        for (double percentile: new double[] { 1, 10, 50, 90, 99, 99.9, 100 }) {
+            long exact = (long) Math.ceil(percentile / 100 * count);
+            long reported = histogram.percentile(percentile);
+            // Never below the real value and at most one sub-bucket (1/16) above it.
+            assertTrue(reported >= exact, "p" + percentile + ": " + reported + " < " + exact);
+            assertTrue(reported <= exact + exact / 16, "p" + percentile + ": " + reported + " > " + exact);
+        }
+        assertEquals(count, histogram.percentile(100));
+    }
+
+    @Test
+    public void testPercentileAccuracyRandom() {
+        Random random = new Random(42);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over several orders of magnitude, like case durations.
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile: new double[] { 50, 90, 99 }) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.percentile(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / 16,
+                    "p" + percentile + ": " + reported + " vs " + exact);
+        }
+    }
+
+    @Test
+    public void testNeverAboveMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(1001);
+        assertEquals(1001, histogram.max());
+        assertEquals(1001, histogram.percentile(99));
+    }
+
+    @Test
+    public void testValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.percentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 41) - 1, histogram.max());
+        assertEquals((1L << 41) - 1, histogram.percentile(100));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PortAllocatorTest {
+
+    @TempDir
+    File tmp;
+
+    private static Map<Integer, Long> read(File registry) throws IOException {
+        Map<Integer, Long> reserved = new HashMap<>();
+        for (String line: Files.readAllLines(registry.toPath(), StandardCharsets.US_ASCII)) {
+            String[] values = line.split(" ");
+            reserved.put(Integer.parseInt(values[0]), Long.parseLong(values[1]));
+        }
+        return reserved;
+    }
+
+    @Test
+    public void testReservedPortsAreDistinct() throws IOException {
+        File registry = new File(tmp, "ports");
+        PortAllocator allocator = new PortAllocator(registry);
+        try (PortAllocator.Reservation first = allocator.reserve(5);
+             PortAllocator.Reservation second = allocator.reserve(5)) {
+            Set<Integer> ports = new HashSet<>(first.ports());
+            ports.addAll(second.ports());
+            assertEquals(10, ports.size());
+            assertEquals(ports, read(registry).keySet());
+        }
+        assertTrue(read(registry).isEmpty());
+    }
+
+    @Test
+    public void testReleaseSinglePort() throws IOException {
+        File registry = new File(tmp, "ports");
+        try (PortAllocator.Reservation reservation = new PortAllocator(registry).reserve(2)) {
+            int port = reservation.ports().get(0);
+            reservation.release(port);
+            assertFalse(read(registry).containsKey(port));
+            assertTrue(read(registry).containsKey(reservation.ports().get(1)));
+            // Releasing again is a no-op.
+            reservation.release(port);
+        }
+        assertTrue(read(registry).isEmpty());
+    }
+
+    @Test
+    public void testReservationsExpire() throws IOException {
+        File registry = new File(tmp, "ports");
+        long now = System.currentTimeMillis();
+        long live = now + TimeUnit.MINUTES.toMillis(1);
+        // Left behind by an execution that was killed, and one that still runs.
+        Files.write(registry.toPath(), ("1 " + (now - 1) + "\n2 " + live + "\nbroken\n")
+                .getBytes(StandardCharsets.US_ASCII));
+
+        try (PortAllocator.Reservation reservation = new PortAllocator(registry).reserve(1)) {
+            Map<Integer, Long> reserved = read(registry);
+            assertFalse(reserved.containsKey(1));
+            assertEquals(live, (long) reserved.get(2));
+            long expiry = reserved.get(reservation.ports().get(0));
+            assertTrue(expiry > now + TimeUnit.MINUTES.toMillis(4) &&
+                    expiry <= System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+        }
+        assertEquals(1, read(registry).size());
+    }
+}
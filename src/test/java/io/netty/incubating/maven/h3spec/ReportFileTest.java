@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReportFileTest {
+
+    @TempDir
+    File tmp;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testTailFollowsEveryAppend() throws IOException {
+        File file = new File(tmp, "report.xml");
+        try (ReportFile report = new ReportFile(file, bytes("</root>\n"))) {
+            report.append(bytes("<root>\n"));
+            assertEquals("<root>\n</root>\n", read(file));
+            report.append(bytes("<a/>\n"));
+            report.append(bytes("<b/>\n"));
+            assertEquals("<root>\n<a/>\n<b/>\n</root>\n", read(file));
+        }
+        assertEquals("<root>\n<a/>\n<b/>\n</root>\n", read(file));
+    }
+
+    @Test
+    public void testExistingFileIsTruncated() throws IOException {
+        File file = new File(tmp, "report.xml");
+        Files.write(file.toPath(), bytes("content of an earlier run which is longer"));
+        try (ReportFile report = new ReportFile(file, bytes("]"))) {
+            report.append(bytes("["));
+        }
+        assertEquals("[]", read(file));
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        File file = new File(tmp, "report.txt");
+        try (ReportFile report = new ReportFile(file, bytes("."))) {
+            report.append(bytes("count=0\n"));
+            report.overwrite(6, bytes("7"));
+            assertEquals("count=7\n.", read(file));
+            assertThrows(IllegalArgumentException.class, () -> report.overwrite(6, bytes("7\n.")));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.incubating.maven.h3spec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StreamMatcherTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Charset.defaultCharset());
+    }
+
+    @Test
+    public void testMatchesOfAllPatterns() {
+        StreamMatcher matcher = new StreamMatcher(Arrays.asList("ready", "LEAK: ", "EAK"));
+        List<Integer> matches = new ArrayList<>();
+        byte[] b = bytes("server ready\nLEAK: ByteBuf.release() was not called\nready");
+        matcher.match(0, b, 0, b.length, matches::add);
+        // "EAK" ends before "LEAK: ", both are found.
+        assertEquals(Arrays.asList(0, 2, 1, 0), matches);
+    }
+
+    @Test
+    public void testOverlappingMatches() {
+        StreamMatcher matcher = new StreamMatcher(Arrays.asList("aa", "aaa"));
+        List<Integer> matches = new ArrayList<>();
+        byte[] b = bytes("aaaa");
+        matcher.match(0, b, 0, b.length, matches::add);
+        assertEquals(Arrays.asList(0, 0, 1, 0, 1), matches);
+    }
+
+    @Test
+    public void testMatchesSplitAcrossWrites() {
+        StreamMatcher matcher = new StreamMatcher(Arrays.asList("Server started", "Exception"));
+        byte[] b = bytes("log line\nServer started on port 4433\njava.lang.Exception: boom\n");
+        for (int split = 0; split <= b.length; split++) {
+            List<Integer> matches = new ArrayList<>();
+            int state = matcher.match(0, b, 0, split, matches::add);
+            matcher.match(state, b, split, b.length - split, matches::add);
+            assertEquals(Arrays.asList(0, 1), matches, "split at " + split);
+        }
+
+        List<Integer> matches = new ArrayList<>();
+        int state = 0;
+        for (byte x: b) {
+            state = matcher.match(state, x, matches::add);
+        }
+        assertEquals(Arrays.asList(0, 1), matches);
+    }
+
+    @Test
+    public void testMatchingOutputStream() throws IOException {
+        StreamMatcher matcher = new StreamMatcher(Collections.singletonList("ready"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> matches = new ArrayList<>();
+        byte[] b = bytes("not rea");
+        try (StreamMatcher.MatchingOutputStream stream = new StreamMatcher.MatchingOutputStream(out, matcher,
+                matches::add)) {
+            stream.write(b, 0, b.length);
+            assertEquals(Collections.emptyList(), matches);
+            stream.write('d');
+            stream.write(bytes("y\n"));
+        }
+        assertEquals(Collections.singletonList(0), matches);
+        assertArrayEquals(bytes("not ready\n"), out.toByteArray());
+    }
+
+    @Test
+    public void testInvalidPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamMatcher(Collections.singletonList("")));
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i <= Long.SIZE; i++) {
+            patterns.add("pattern " + i);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new StreamMatcher(patterns));
+    }
+}